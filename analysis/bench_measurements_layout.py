@@ -0,0 +1,210 @@
+"""
+Time the migration that clusters measurements by metric and interns commit ids, and
+the queries it is meant to speed up, on a synthetic DB of the given size.
+
+The DB is created by applying the migrations before it, filled with one
+measurement per metric and commit, and then migrated. Reading the values of
+one metric, reading the values of one commit and reading the latest commits like
+the quantile rebuild does are timed before and after the migration, and again
+after applying the remaining migrations.
+
+    python bench_measurements_layout.py --metrics 100000 --commits 10000
+"""
+
+import argparse
+import sqlite3
+import statistics
+import tempfile
+import time
+from pathlib import Path
+
+MIGRATIONS = Path(__file__).parent.parent / "radar/src/main/resources/db/migration"
+LAYOUT_MIGRATION = "Metric_major_measurements"
+
+
+def versions() -> list[tuple[int, Path]]:
+    files = [
+        (int(it.name[1:].split("__")[0]), it) for it in MIGRATIONS.glob("V*__*.sql")
+    ]
+    return sorted(files)
+
+
+def layout_version() -> int:
+    for version, file in versions():
+        if file.name.endswith(f"__{LAYOUT_MIGRATION}.sql"):
+            return version
+    raise ValueError(f"No migration named {LAYOUT_MIGRATION}")
+
+
+def migrations(start: int, end: int) -> list[Path]:
+    return [file for version, file in versions() if start <= version <= end]
+
+
+def migrate(db: sqlite3.Connection, files: list[Path]) -> None:
+    for file in files:
+        # Flyway runs every migration in its own transaction
+        db.executescript("BEGIN;\n" + file.read_text() + "\nCOMMIT;")
+
+
+def fill(db: sqlite3.Connection, metrics: int, commits: int) -> None:
+    db.execute("BEGIN")
+    db.execute(
+        """
+        WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i + 1 < ?)
+        INSERT INTO commits (
+            chash, author_name, author_email, author_time, author_offset,
+            committer_name, committer_email, committer_time, committer_offset,
+            message_title
+        )
+        SELECT printf('%040x', i), 'a', 'a', '2025-01-01 00:00:00+00:00', 0,
+               'c', 'c', '2025-01-01 00:00:00+00:00', 0, 'Commit ' || i
+        FROM n
+        """,
+        (commits,),
+    )
+    db.execute(
+        "INSERT INTO history (position, chash) SELECT rowid - 1, chash FROM commits"
+    )
+    db.execute(
+        """
+        WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i + 1 < ?)
+        INSERT INTO metrics (metric, unit) SELECT printf('metric/%06d', i), NULL FROM n
+        """,
+        (metrics,),
+    )
+    # Measurements arrive one commit at a time, so insert them in that order
+    db.execute(
+        """
+        INSERT INTO measurements (chash, metric, value)
+        SELECT commits.chash, metrics.metric, abs(random() % 1000000)
+        FROM commits CROSS JOIN metrics
+        ORDER BY commits.rowid, metrics.metric
+        """
+    )
+    db.execute("COMMIT")
+
+
+def size_mib(db: sqlite3.Connection) -> float:
+    # Dropped tables leave free pages behind until the next vacuum
+    pages = db.execute("PRAGMA page_count").fetchone()[0]
+    pages -= db.execute("PRAGMA freelist_count").fetchone()[0]
+    page_size = db.execute("PRAGMA page_size").fetchone()[0]
+    return pages * page_size / 1024 / 1024
+
+
+def median_seconds(db: sqlite3.Connection, sql: str, args: list[tuple]) -> float:
+    times = []
+    for arg in args:
+        start = time.perf_counter()
+        db.execute(sql, arg).fetchall()
+        times.append(time.perf_counter() - start)
+    return statistics.median(times)
+
+
+def time_queries(db: sqlite3.Connection, interned: bool, samples: int, window: int) -> None:
+    if interned:
+        metric_column = "metric_id"
+        metric_key = "id"
+        # Measurements refer to commits by their id in commit_ids
+        with_history = """
+            history
+            JOIN commit_ids ON commit_ids.chash = history.chash
+            JOIN measurements ON measurements.commit_id = commit_ids.id
+            """
+        by_commit = "commit_id = (SELECT id FROM commit_ids WHERE chash = ?)"
+    else:
+        metric_column = "metric"
+        metric_key = "metric"
+        with_history = """
+            history JOIN measurements ON measurements.chash = history.chash
+            """
+        by_commit = "chash = ?"
+
+    metrics = db.execute(
+        f"SELECT {metric_key} FROM metrics ORDER BY random() LIMIT ?", (samples,)
+    ).fetchall()
+    chashes = db.execute(
+        "SELECT chash FROM commits ORDER BY random() LIMIT ?", (samples,)
+    ).fetchall()
+
+    per_metric = median_seconds(
+        db,
+        f"""
+        SELECT history.position, measurements.value
+        FROM {with_history}
+        WHERE measurements.{metric_column} = ?
+        """,
+        metrics,
+    )
+    per_commit = median_seconds(
+        db,
+        f"SELECT {metric_column}, value FROM measurements WHERE {by_commit}",
+        chashes,
+    )
+    # What the quantile rebuild reads
+    start = time.perf_counter()
+    db.execute(
+        f"""
+        SELECT measurements.{metric_column}, history.position, measurements.value
+        FROM {with_history}
+        WHERE history.position > (SELECT max(position) FROM history) - ?
+        ORDER BY history.position
+        """,
+        (window,),
+    ).fetchall()
+    latest = time.perf_counter() - start
+
+    print(f"  {'one metric':<24}{per_metric * 1000:10.2f} ms (median of {samples})")
+    print(f"  {'one commit':<24}{per_commit * 1000:10.2f} ms (median of {samples})")
+    print(f"  {f'latest {window} commits':<24}{latest * 1000:10.2f} ms")
+
+
+def main() -> None:
+    parser = argparse.ArgumentParser(description=__doc__)
+    parser.add_argument("--metrics", type=int, default=100_000)
+    parser.add_argument("--commits", type=int, default=10_000)
+    parser.add_argument("--samples", type=int, default=10)
+    parser.add_argument(
+        "--window", type=int, default=100, help="commits read by the quantile rebuild"
+    )
+    parser.add_argument("--db", type=Path, help="defaults to a temporary file")
+    args = parser.parse_args()
+
+    with tempfile.TemporaryDirectory() as tmp:
+        path = args.db or Path(tmp) / "bench.db"
+        db = sqlite3.connect(path, isolation_level=None)
+        db.execute("PRAGMA journal_mode = WAL")
+        db.execute("PRAGMA foreign_keys = ON")
+
+        print(f"{args.metrics} metrics x {args.commits} commits")
+        layout = layout_version()
+        migrate(db, migrations(1, layout - 1))
+
+        start = time.perf_counter()
+        fill(db, args.metrics, args.commits)
+        elapsed = time.perf_counter() - start
+        print(f"Filled DB in {elapsed:.1f} s, {size_mib(db):.0f} MiB")
+
+        print(f"Before V{layout}:")
+        time_queries(db, False, args.samples, args.window)
+
+        start = time.perf_counter()
+        migrate(db, migrations(layout, layout))
+        elapsed = time.perf_counter() - start
+        print(f"Migrated to V{layout} in {elapsed:.1f} s, {size_mib(db):.0f} MiB")
+
+        print(f"After V{layout}:")
+        time_queries(db, True, args.samples, args.window)
+
+        start = time.perf_counter()
+        migrate(db, migrations(layout + 1, 1_000_000))
+        elapsed = time.perf_counter() - start
+        print(f"Migrated to latest version in {elapsed:.1f} s, {size_mib(db):.0f} MiB")
+
+        print("Latest version:")
+        time_queries(db, True, args.samples, args.window)
+        db.close()
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,5 @@
+import { postAdminJson } from "@/api/utils.ts";
+
+export async function postAdminBackup(adminToken: string, repo: string) {
+  await postAdminJson("/admin/backup/", adminToken, { repo });
+}
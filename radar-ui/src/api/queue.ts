@@ -23,6 +23,7 @@ const JsonTask = z.object({
   repo: z.string(),
   commit: JsonCommit,
   runs: JsonRun.array(),
+  eta: Timestamp,
 });
 
 export type JsonGet = z.infer<typeof JsonGet>;
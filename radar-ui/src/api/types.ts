@@ -10,6 +10,10 @@ export const JsonRun = z.object({
   name: z.string(),
   script: z.string(),
   runner: z.string(),
+  lease: z
+    .object({ runner: z.string(), expires: Timestamp })
+    .nullish()
+    .transform((it) => it ?? undefined),
   active: z
     .object({ startTime: Timestamp })
     .nullish()
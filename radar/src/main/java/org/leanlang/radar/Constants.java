@@ -11,10 +11,18 @@ public final class Constants {
     public static final Duration RUNNER_HTTP_REQUEST_TIMEOUT = Duration.ofMinutes(1);
 
     /**
-     * Delay between unsuccessful job attempts (e.g. the server had no job, there was an exception, ...).
+     * Delay between unsuccessful job attempts (e.g. there was an exception, ...).
+     * If the server has no job, {@link #RUNNER_NO_JOB_DELAY} applies instead.
      */
     public static final Duration RUNNER_GET_JOB_DELAY = Duration.ofSeconds(10);
 
+    /**
+     * Minimum time between two attempts to get a job if the server has none.
+     * The server usually waits for up to {@link #QUEUE_TAKE_WAIT_TIMEOUT} before answering, so this only matters if it
+     * answers right away, e.g. because a proxy cut the request short.
+     */
+    public static final Duration RUNNER_NO_JOB_DELAY = Duration.ofSeconds(1);
+
     /**
      * How long to wait in-between attempts to submit the results of a bench run.
      */
@@ -34,8 +42,9 @@ public final class Constants {
 
     /**
      * Maximum number of output lines the runner will keep and send back to the server.
+     * The server streams the lines straight into the run log file, so this only limits the runner's memory usage.
      */
-    public static final int RUNNER_MAX_OUTPUT_LINES = 50000;
+    public static final int RUNNER_MAX_OUTPUT_LINES = 200000;
 
     /**
      * A runner's last status update must be at most this long ago,
@@ -50,6 +59,20 @@ public final class Constants {
      */
     public static final Duration RUNNER_MAINTENANCE_DELAY = Duration.ZERO;
 
+    /**
+     * How long the server holds a runner's request for a job if no job is available right now.
+     * Must be well below {@link #RUNNER_HTTP_REQUEST_TIMEOUT} and the idle timeouts of the server and any proxies.
+     */
+    public static final Duration QUEUE_TAKE_WAIT_TIMEOUT = Duration.ofSeconds(20);
+
+    /**
+     * How long a job stays reserved for the runner that took it.
+     * Every status update of the runner renews the lease, so this only matters once a runner stops responding.
+     *
+     * @see #RUNNER_STATUS_UPDATE_DELAY
+     */
+    public static final Duration QUEUE_LEASE_DURATION = Duration.ofMinutes(1);
+
     /**
      * Delay between {@link org.leanlang.radar.server.busser.Busser Busser} update runs.
      */
@@ -61,10 +84,79 @@ public final class Constants {
     public static final Duration BUSSER_MAINTENANCE_DELAY = Duration.ZERO;
 
     /**
-     * Time after which a repo's quantiles are considered out of date and should be updated.
+     * Time after which a repo's quantiles are rebuilt from scratch. In between, the busser adds the runs of finished
+     * jobs to the quantile windows incrementally, so the rebuild mostly serves as a consistency check, e.g. for commits
+     * measured before entering the history.
      */
     public static final Duration BUSSER_QUANTILE_LIFETIME = Duration.ofHours(24);
 
+    /**
+     * Minimum number of connections in a repo DB's read pool. Reads spend much of their time waiting for the disk, so a
+     * few connections are worth having even on machines with fewer cores.
+     */
+    public static final int DB_READ_POOL_MIN_SIZE = 4;
+
+    /**
+     * How long the checkpointer's RESTART checkpoint may wait for readers. It holds the write lock while waiting, so
+     * writers wait at most this long before the checkpoint gives up.
+     */
+    public static final Duration DB_CHECKPOINT_BUSY_TIMEOUT = Duration.ofMillis(100);
+
+    /**
+     * How long an online vacuum waits for running reads before replacing the DB file. New reads wait as well in the
+     * meantime. If the reads take longer, the vacuum is aborted.
+     */
+    public static final Duration DB_VACUUM_DRAIN_TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * How long to wait for more writes before committing a group of grouped write transactions.
+     * Grouped writes are only used by the {@link org.leanlang.radar.server.busser.Busser Busser},
+     * which doesn't mind the delay.
+     */
+    public static final Duration DB_GROUP_COMMIT_WINDOW = Duration.ofMillis(10);
+
+    /**
+     * Maximum number of grouped write transactions to commit together.
+     */
+    public static final int DB_GROUP_COMMIT_MAX_WRITES = 1000;
+
+    /**
+     * Number of DB pages to copy per step of an online backup.
+     */
+    public static final int DB_BACKUP_PAGES_PER_STEP = 256;
+
+    /**
+     * Pause between the steps of an online backup.
+     */
+    public static final Duration DB_BACKUP_STEP_PAUSE = Duration.ofMillis(5);
+
+    /**
+     * Number of times an online backup may start over because the DB was written to before it blocks writes to finish.
+     */
+    public static final int DB_BACKUP_MAX_RESTARTS = 3;
+
+    /**
+     * Maximum number of commits whose measurements are archived together in a single archive file.
+     */
+    public static final int ARCHIVE_CHUNK_COMMITS = 100;
+
+    /**
+     * Maximum total size of the archive files to keep in memory per repo. Files are kept compressed, only the values of
+     * the metrics that are actually read get decompressed.
+     */
+    public static final long ARCHIVE_CACHE_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Number of commit pairs whose data is loaded together when comparing a range of commits.
+     * Every pair keeps the measurements of its commits in memory until it is compared.
+     */
+    public static final int COMPARE_RANGE_CHUNK_PAIRS = 16;
+
+    /**
+     * How long stored commit comparisons are kept before daily maintenance deletes them.
+     */
+    public static final Duration COMPARISON_STORE_LIFETIME = Duration.ofDays(30);
+
     /**
      * Queue priority of commits added because they newly appeared on one of the tracked branches.
      */
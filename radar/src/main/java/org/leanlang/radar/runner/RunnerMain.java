@@ -17,6 +17,8 @@ import io.dropwizard.logging.common.LoggingFactory;
 import jakarta.ws.rs.client.Client;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -95,14 +97,19 @@ public final class RunnerMain {
                     executor, "Maintaining repos", supervisor::maintain, Constants.RUNNER_MAINTENANCE_DELAY);
 
             while (true) {
+                Duration delay = Constants.RUNNER_GET_JOB_DELAY;
                 try {
-                    while (supervisor.run()) {}
+                    Instant start = Instant.now();
+                    while (supervisor.run()) start = Instant.now();
+                    // If there is no job, the server usually waits for one before responding.
+                    // Should it respond right away anyway, don't flood it with requests.
+                    delay = Constants.RUNNER_NO_JOB_DELAY.minus(start.until(Instant.now()));
                 } catch (Exception e) {
                     log.error("Error while running supervisor", e);
                 }
 
                 try {
-                    Thread.sleep(Constants.RUNNER_GET_JOB_DELAY);
+                    if (delay.isPositive()) Thread.sleep(delay);
                 } catch (InterruptedException ignored) {
                 }
             }
@@ -46,4 +46,21 @@ public record JsonRunResult(
                 entries,
                 lines);
     }
+
+    public JsonRunResult withEntriesAndLines(List<JsonRunResultEntry> entries, List<JsonOutputLine> lines) {
+        return new JsonRunResult(
+                repo,
+                chash,
+                benchChash,
+                name,
+                script,
+                startTime,
+                endTime,
+                scriptStartTime,
+                scriptEndTime,
+                exitCode,
+                systemConfigurationId,
+                entries,
+                lines);
+    }
 }
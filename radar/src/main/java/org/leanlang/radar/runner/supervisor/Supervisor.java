@@ -6,7 +6,12 @@ import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -18,7 +23,7 @@ import org.leanlang.radar.Constants;
 import org.leanlang.radar.runner.config.Dirs;
 import org.leanlang.radar.runner.config.RunnerConfig;
 import org.leanlang.radar.runner.statusupdater.StatusUpdater;
-import org.leanlang.radar.server.api.ResQueueRunnerFinish;
+import org.leanlang.radar.server.api.ResQueueRunnerFinishStream;
 import org.leanlang.radar.server.api.ResQueueRunnerTake;
 import org.leanlang.radar.server.repos.RepoGit;
 import org.leanlang.radar.util.FsUtil;
@@ -180,7 +185,11 @@ public final class Supervisor {
         return client.target(config.apiUrl(ResQueueRunnerTake.PATH))
                 .request(MediaType.APPLICATION_JSON)
                 .post(
-                        Entity.json(new ResQueueRunnerTake.JsonPostInput(config.name, config.token)),
+                        Entity.json(new ResQueueRunnerTake.JsonPostInput(
+                                config.name,
+                                config.token,
+                                Optional.of(true),
+                                Optional.ofNullable(config.systemConfigurationId))),
                         ResQueueRunnerTake.JsonPost.class)
                 .job();
     }
@@ -246,9 +255,23 @@ public final class Supervisor {
         // our run after we've already submitted the results. Otherwise, the run will land on the queue again.
         new StatusUpdater(config, this, client).runAndThrow();
 
-        Response response = client.target(config.apiUrl(ResQueueRunnerFinish.PATH))
+        // Streaming the result line by line so the server doesn't need to hold the entire log in memory.
+        StreamingOutput body = output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            JsonRunResult header = runResult.withEntriesAndLines(List.of(), List.of());
+            writeLine(writer, new ResQueueRunnerFinishStream.JsonPostHeader(config.name, config.token, header));
+            for (JsonRunResultEntry entry : runResult.entries()) {
+                writeLine(writer, new ResQueueRunnerFinishStream.JsonPostItem(Optional.of(entry), Optional.empty()));
+            }
+            for (JsonOutputLine line : runResult.lines()) {
+                writeLine(writer, new ResQueueRunnerFinishStream.JsonPostItem(Optional.empty(), Optional.of(line)));
+            }
+            writer.flush();
+        };
+
+        Response response = client.target(config.apiUrl(ResQueueRunnerFinishStream.PATH))
                 .request()
-                .post(Entity.json(new ResQueueRunnerFinish.JsonPostInput(config.name, config.token, runResult)));
+                .post(Entity.entity(body, ResQueueRunnerFinishStream.MEDIA_TYPE));
 
         if (!response.getStatusInfo().getFamily().equals(Response.Status.Family.SUCCESSFUL)) {
             throw new WebApplicationException(response);
@@ -256,4 +279,9 @@ public final class Supervisor {
 
         log.debug("Submitted result");
     }
+
+    private void writeLine(Writer writer, Object value) throws IOException {
+        writer.write(mapper.writeValueAsString(value));
+        writer.write('\n');
+    }
 }
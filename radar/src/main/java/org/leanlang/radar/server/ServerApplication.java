@@ -1,6 +1,5 @@
 package org.leanlang.radar.server;
 
-import com.codahale.metrics.health.HealthCheck;
 import io.dropwizard.assets.AssetsBundle;
 import io.dropwizard.auth.AuthDynamicFeature;
 import io.dropwizard.auth.AuthValueFactoryProvider;
@@ -14,6 +13,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Map;
 import org.jspecify.annotations.Nullable;
+import org.leanlang.radar.server.api.ResAdminBackup;
 import org.leanlang.radar.server.api.ResAdminEnqueue;
 import org.leanlang.radar.server.api.ResAdminMaintain;
 import org.leanlang.radar.server.api.ResAdminRecomputeSignificance;
@@ -29,6 +29,7 @@ import org.leanlang.radar.server.api.ResMetricsProm;
 import org.leanlang.radar.server.api.ResQueue;
 import org.leanlang.radar.server.api.ResQueueRun;
 import org.leanlang.radar.server.api.ResQueueRunnerFinish;
+import org.leanlang.radar.server.api.ResQueueRunnerFinishStream;
 import org.leanlang.radar.server.api.ResQueueRunnerStatus;
 import org.leanlang.radar.server.api.ResQueueRunnerTake;
 import org.leanlang.radar.server.api.ResRepoGithubBot;
@@ -87,7 +88,6 @@ public final class ServerApplication extends Application<ServerConfig> {
 
     @Override
     public void run(ServerConfig configuration, Environment environment) throws IOException {
-        configureDummyHealthCheck(environment);
         configureAdminAuth(environment, configuration.adminToken);
         var client = configureJerseyClient(configuration, environment);
 
@@ -95,8 +95,8 @@ public final class ServerApplication extends Application<ServerConfig> {
 
         var dirs = new Dirs(configFile, stateDir, cacheDir, configuration.dirs);
         var repos = new Repos(environment, client, dirs, credentials, configuration.repos);
-        var runners = new Runners(configuration.runners);
-        var queue = new Queue(repos, runners);
+        var runners = new Runners(configuration.runners, configuration.pools);
+        var queue = new Queue(repos, runners, configuration.preferShortJobs);
         var busser = new Busser(radarLinker, repos, queue);
 
         environment.lifecycle().manage(repos);
@@ -105,6 +105,7 @@ public final class ServerApplication extends Application<ServerConfig> {
         environment.jersey().setUrlPattern("/api/*");
         environment.jersey().register(new ResAdminEnqueue(repos, queue));
         environment.jersey().register(new ResAdminMaintain(busser));
+        environment.jersey().register(new ResAdminBackup(busser));
         environment.jersey().register(new ResAdminResetRssBotState(repos));
         environment.jersey().register(new ResAdminRecomputeSignificance(busser));
         environment.jersey().register(new ResAdminRepoMetrics(repos));
@@ -118,6 +119,9 @@ public final class ServerApplication extends Application<ServerConfig> {
         environment.jersey().register(new ResQueue(repos, runners, queue));
         environment.jersey().register(new ResQueueRun(queue));
         environment.jersey().register(new ResQueueRunnerFinish(runners, queue, busser));
+        environment
+                .jersey()
+                .register(new ResQueueRunnerFinishStream(repos, runners, queue, busser, environment.getObjectMapper()));
         environment.jersey().register(new ResQueueRunnerStatus(runners, queue));
         environment.jersey().register(new ResQueueRunnerTake(runners, queue));
         environment.jersey().register(new ResRepoGithubBot(repos));
@@ -128,15 +132,6 @@ public final class ServerApplication extends Application<ServerConfig> {
         environment.jersey().register(new ResRepos(repos));
     }
 
-    private static void configureDummyHealthCheck(Environment environment) {
-        environment.healthChecks().register("dummy", new HealthCheck() {
-            @Override
-            protected Result check() {
-                return Result.healthy();
-            }
-        });
-    }
-
     private static void configureAdminAuth(Environment environment, String adminToken) {
         environment
                 .jersey()
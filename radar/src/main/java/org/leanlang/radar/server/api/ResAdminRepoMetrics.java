@@ -1,5 +1,6 @@
 package org.leanlang.radar.server.api;
 
+import static org.leanlang.radar.codegen.jooq.Tables.COMMIT_IDS;
 import static org.leanlang.radar.codegen.jooq.Tables.HISTORY;
 import static org.leanlang.radar.codegen.jooq.Tables.MEASUREMENTS;
 import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
@@ -20,6 +21,7 @@ import java.util.stream.Collectors;
 import org.jooq.Record1;
 import org.jooq.Record2;
 import org.jooq.impl.DSL;
+import org.leanlang.radar.server.repos.CommitIds;
 import org.leanlang.radar.server.repos.Repo;
 import org.leanlang.radar.server.repos.Repos;
 
@@ -48,25 +50,28 @@ public record ResAdminRepoMetrics(Repos repos) {
                             .limit(1)
                             .fetchOne(HISTORY.CHASH);
 
-                    Set<String> latestMetrics;
+                    Set<Integer> latestMetrics;
                     if (latestChash == null) {
                         latestMetrics = Set.of();
                     } else {
                         latestMetrics = ctx
                                 .dsl()
-                                .select(MEASUREMENTS.METRIC)
+                                .select(MEASUREMENTS.METRIC_ID)
                                 .from(MEASUREMENTS)
-                                .where(MEASUREMENTS.CHASH.eq(latestChash))
+                                .where(MEASUREMENTS.COMMIT_ID.eq(CommitIds.of(latestChash)))
                                 .stream()
                                 .map(Record1::value1)
                                 .collect(Collectors.toUnmodifiableSet());
                     }
 
-                    Map<String, Integer> metricCounts = ctx
+                    Map<Integer, Integer> metricCounts = ctx
                             .dsl()
-                            .select(MEASUREMENTS.METRIC, DSL.count())
-                            .from(HISTORY.join(MEASUREMENTS).on(MEASUREMENTS.CHASH.eq(HISTORY.CHASH)))
-                            .groupBy(MEASUREMENTS.METRIC)
+                            .select(MEASUREMENTS.METRIC_ID, DSL.count())
+                            .from(HISTORY.join(COMMIT_IDS)
+                                    .on(COMMIT_IDS.CHASH.eq(HISTORY.CHASH))
+                                    .join(MEASUREMENTS)
+                                    .on(MEASUREMENTS.COMMIT_ID.eq(COMMIT_IDS.ID)))
+                            .groupBy(MEASUREMENTS.METRIC_ID)
                             .stream()
                             .collect(Collectors.toMap(Record2::value1, Record2::value2));
 
@@ -74,8 +79,8 @@ public record ResAdminRepoMetrics(Repos repos) {
                             .map(it -> new JsonMetric(
                                     it.getMetric(),
                                     Optional.ofNullable(it.getUnit()),
-                                    latestMetrics.contains(it.getMetric()),
-                                    metricCounts.getOrDefault(it.getMetric(), 0)))
+                                    latestMetrics.contains(it.getId()),
+                                    metricCounts.getOrDefault(it.getId(), 0)))
                             .toList();
 
                     return new JsonGet(metrics);
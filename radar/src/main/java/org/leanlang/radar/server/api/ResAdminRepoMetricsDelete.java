@@ -11,6 +11,8 @@ import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.core.MediaType;
 import java.util.List;
 import org.leanlang.radar.server.api.auth.Admin;
+import org.leanlang.radar.server.compare.CommitComparisonStore;
+import org.leanlang.radar.server.repos.Repo;
 import org.leanlang.radar.server.repos.Repos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,11 +26,15 @@ public record ResAdminRepoMetricsDelete(Repos repos) {
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     public void post(@Auth Admin admin, @PathParam("repo") String repoName, JsonPost input) {
-        repos.repo(repoName).db().writeTransaction(ctx -> {
+        Repo repo = repos.repo(repoName);
+        repo.db().writeTransaction(ctx -> {
             for (String metric : input.metrics) {
                 log.info("Deleting metric '{}' in repo '{}'", metric, repoName);
                 ctx.dsl().deleteFrom(METRICS).where(METRICS.METRIC.eq(metric)).execute();
             }
+            repo.metricCache().invalidate();
+            CommitComparisonStore.invalidateAll(ctx);
+            CommitComparisonStore.increaseQuantileVersion(ctx);
         });
     }
 }
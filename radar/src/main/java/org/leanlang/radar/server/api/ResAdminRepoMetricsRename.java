@@ -1,8 +1,10 @@
 package org.leanlang.radar.server.api;
 
+import static org.leanlang.radar.codegen.jooq.Tables.ARCHIVED_METRICS;
 import static org.leanlang.radar.codegen.jooq.Tables.MEASUREMENTS;
 import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
 import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE;
+import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE_WINDOWS;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.auth.Auth;
@@ -14,6 +16,8 @@ import jakarta.ws.rs.core.MediaType;
 import java.util.Map;
 import org.leanlang.radar.codegen.jooq.tables.records.MetricsRecord;
 import org.leanlang.radar.server.api.auth.Admin;
+import org.leanlang.radar.server.compare.CommitComparisonStore;
+import org.leanlang.radar.server.repos.Repo;
 import org.leanlang.radar.server.repos.Repos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +32,8 @@ public record ResAdminRepoMetricsRename(Repos repos) {
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     public void get(@Auth Admin admin, @PathParam("repo") String repoName, JsonPost input) {
-        repos.repo(repoName).db().writeTransaction(ctx -> {
+        Repo repo = repos.repo(repoName);
+        repo.db().writeTransaction(ctx -> {
             for (Map.Entry<String, String> entry : input.metrics.entrySet()) {
                 log.info("Renaming metric '{}' to '{}' in repo '{}'", entry.getKey(), entry.getValue(), repoName);
 
@@ -36,22 +41,33 @@ public record ResAdminRepoMetricsRename(Repos repos) {
                         .selectFrom(METRICS)
                         .where(METRICS.METRIC.eq(entry.getKey()))
                         .fetchOne();
+                if (metricsRecord == null) continue;
 
                 // Ensure the new metric exists while keeping the old one around
                 // because of the ON DELETE CASCADE constraint in the MEASUREMENTS table.
-                if (metricsRecord != null) {
-                    ctx.dsl()
-                            .insertInto(METRICS, METRICS.METRIC, METRICS.UNIT)
-                            .values(entry.getValue(), metricsRecord.getUnit())
-                            .onDuplicateKeyIgnore()
-                            .execute();
-                }
+                ctx.dsl()
+                        .insertInto(METRICS, METRICS.METRIC, METRICS.UNIT)
+                        .values(entry.getValue(), metricsRecord.getUnit())
+                        .onDuplicateKeyIgnore()
+                        .execute();
+                Integer newId = ctx.dsl()
+                        .select(METRICS.ID)
+                        .from(METRICS)
+                        .where(METRICS.METRIC.eq(entry.getValue()))
+                        .fetchOne(METRICS.ID);
 
-                // Rename measurements
+                // Move measurements to new metric
                 ctx.dsl()
                         .update(MEASUREMENTS)
-                        .set(MEASUREMENTS.METRIC, entry.getValue())
-                        .where(MEASUREMENTS.METRIC.eq(entry.getKey()))
+                        .set(MEASUREMENTS.METRIC_ID, newId)
+                        .where(MEASUREMENTS.METRIC_ID.eq(metricsRecord.getId()))
+                        .execute();
+
+                // Move archived measurements to new metric
+                ctx.dsl()
+                        .update(ARCHIVED_METRICS)
+                        .set(ARCHIVED_METRICS.METRIC_ID, newId)
+                        .where(ARCHIVED_METRICS.METRIC_ID.eq(metricsRecord.getId()))
                         .execute();
 
                 // Move quantile data to new metric
@@ -60,6 +76,15 @@ public record ResAdminRepoMetricsRename(Repos repos) {
                         .set(QUANTILE.METRIC, entry.getValue())
                         .where(QUANTILE.METRIC.eq(entry.getKey()))
                         .execute();
+                ctx.dsl()
+                        .deleteFrom(QUANTILE_WINDOWS)
+                        .where(QUANTILE_WINDOWS.METRIC_ID.eq(newId))
+                        .execute();
+                ctx.dsl()
+                        .update(QUANTILE_WINDOWS)
+                        .set(QUANTILE_WINDOWS.METRIC_ID, newId)
+                        .where(QUANTILE_WINDOWS.METRIC_ID.eq(metricsRecord.getId()))
+                        .execute();
 
                 // Delete the old metric
                 // Includes any left-over measurements, thanks to ON DELETE CASCADE
@@ -68,6 +93,9 @@ public record ResAdminRepoMetricsRename(Repos repos) {
                         .where(METRICS.METRIC.eq(entry.getKey()))
                         .execute();
             }
+            repo.metricCache().invalidate();
+            CommitComparisonStore.invalidateAll(ctx);
+            CommitComparisonStore.increaseQuantileVersion(ctx);
         });
     }
 }
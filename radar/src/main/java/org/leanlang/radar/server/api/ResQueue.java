@@ -10,6 +10,7 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
@@ -17,6 +18,7 @@ import org.leanlang.radar.Constants;
 import org.leanlang.radar.codegen.jooq.tables.records.CommitsRecord;
 import org.leanlang.radar.server.queue.JsonRun;
 import org.leanlang.radar.server.queue.Queue;
+import org.leanlang.radar.server.queue.Task;
 import org.leanlang.radar.server.repos.Repos;
 import org.leanlang.radar.server.runners.RunnerStatus;
 import org.leanlang.radar.server.runners.Runners;
@@ -28,10 +30,14 @@ public record ResQueue(Repos repos, Runners runners, Queue queue) {
             @JsonProperty(required = true) boolean connected,
             Optional<Instant> lastSeen) {}
 
+    /**
+     * @param eta rough estimate of when all runs of the task will be finished
+     */
     public record JsonTask(
             @JsonProperty(required = true) String repo,
             @JsonProperty(required = true) JsonCommit commit,
-            @JsonProperty(required = true) List<JsonRun> runs) {}
+            @JsonProperty(required = true) List<JsonRun> runs,
+            @JsonProperty(required = true) Instant eta) {}
 
     public record JsonGet(
             @JsonProperty(required = true) List<JsonRunner> runners,
@@ -52,23 +58,27 @@ public record ResQueue(Repos repos, Runners runners, Queue queue) {
                 .sorted(Comparator.comparing(JsonRunner::name))
                 .toList();
 
-        List<JsonTask> tasks = queue.getTasks().stream()
-                .map(task -> {
-                    CommitsRecord commit = task.repo()
-                            .db()
-                            .read()
-                            .dsl()
-                            .selectFrom(COMMITS)
-                            .where(COMMITS.CHASH.eq(task.chash()))
-                            .fetchOne();
-                    if (commit == null) throw new InternalServerErrorException("commit not found");
+        List<Task> queueTasks = queue.getTasks();
+        List<Instant> etas = queue.estimateCompletion(queueTasks);
 
-                    return new JsonTask(
-                            task.repo().name(),
-                            new JsonCommit(commit),
-                            task.runs().stream().map(JsonRun::new).sorted().toList());
-                })
-                .toList();
+        List<JsonTask> tasks = new ArrayList<>();
+        for (int i = 0; i < queueTasks.size(); i++) {
+            Task task = queueTasks.get(i);
+            CommitsRecord commit = task.repo()
+                    .db()
+                    .read()
+                    .dsl()
+                    .selectFrom(COMMITS)
+                    .where(COMMITS.CHASH.eq(task.chash()))
+                    .fetchOne();
+            if (commit == null) throw new InternalServerErrorException("commit not found");
+
+            tasks.add(new JsonTask(
+                    task.repo().name(),
+                    new JsonCommit(commit),
+                    task.runs().stream().map(JsonRun::new).sorted().toList(),
+                    etas.get(i)));
+        }
 
         return new JsonGet(runners, tasks);
     }
@@ -13,6 +13,10 @@ import org.leanlang.radar.server.queue.Queue;
 import org.leanlang.radar.server.runners.Runner;
 import org.leanlang.radar.server.runners.Runners;
 
+/**
+ * Finish a run by uploading its entire result at once.
+ * Runners use {@link ResQueueRunnerFinishStream} instead, this endpoint is kept for older runners.
+ */
 @Path(ResQueueRunnerFinish.PATH)
 public record ResQueueRunnerFinish(Runners runners, Queue queue, Busser busser) {
     public static final String PATH = "/queue/runner/finish/";
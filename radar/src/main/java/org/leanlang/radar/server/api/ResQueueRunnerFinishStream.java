@@ -0,0 +1,83 @@
+package org.leanlang.radar.server.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import org.leanlang.radar.runner.supervisor.JsonOutputLine;
+import org.leanlang.radar.runner.supervisor.JsonRunResult;
+import org.leanlang.radar.runner.supervisor.JsonRunResultEntry;
+import org.leanlang.radar.server.busser.Busser;
+import org.leanlang.radar.server.queue.Queue;
+import org.leanlang.radar.server.repos.Repo;
+import org.leanlang.radar.server.repos.Repos;
+import org.leanlang.radar.server.repos.RunEntriesFile;
+import org.leanlang.radar.server.repos.RunLogWriter;
+import org.leanlang.radar.server.runners.Runner;
+import org.leanlang.radar.server.runners.Runners;
+
+/**
+ * Streaming variant of {@link ResQueueRunnerFinish}.
+ * <p>
+ * The body is newline-delimited JSON. The first line is a {@link JsonPostHeader} whose result usually contains
+ * neither entries nor lines. Every following line is a {@link JsonPostItem}. Log lines are written to the run log file
+ * as they arrive, so the server never holds the entire log in memory.
+ */
+@Path(ResQueueRunnerFinishStream.PATH)
+public record ResQueueRunnerFinishStream(
+        Repos repos, Runners runners, Queue queue, Busser busser, ObjectMapper mapper) {
+    public static final String PATH = "/queue/runner/finish/stream/";
+    public static final String MEDIA_TYPE = "application/x-ndjson";
+
+    public record JsonPostHeader(
+            @JsonProperty(required = true) String runner,
+            @JsonProperty(required = true) String token,
+            @JsonProperty(required = true) JsonRunResult result) {}
+
+    public record JsonPostItem(Optional<JsonRunResultEntry> entry, Optional<JsonOutputLine> line) {}
+
+    @POST
+    @Consumes(MEDIA_TYPE)
+    public void post(InputStream body) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+
+        String headerLine = reader.readLine();
+        if (headerLine == null) throw new BadRequestException("missing header");
+        JsonPostHeader header = mapper.readValue(headerLine, JsonPostHeader.class);
+        Runner runner = runners.runner(header.runner, header.token);
+        JsonRunResult result = header.result;
+
+        // Entries are collected in a file and added in a single transaction once the upload is complete. This way,
+        // the repo's write lock is never held while waiting for the network, and large runs never fill the memory.
+        Repo repo = repos.repo(result.repo());
+        try (RunLogWriter runLog = repo.writeRunLog(result.chash(), result.name());
+                RunEntriesFile entries = repo.writeRunEntries(result.chash(), result.name())) {
+            for (JsonOutputLine line : result.lines()) {
+                runLog.write(line);
+            }
+            entries.addAll(result.entries());
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                JsonPostItem item = mapper.readValue(line, JsonPostItem.class);
+                if (item.entry.isPresent()) entries.add(item.entry.get());
+                if (item.line.isPresent()) runLog.write(item.line.get());
+            }
+
+            queue.finishJob(
+                    result.repo(), runner.name(), result.withEntriesAndLines(List.of(), List.of()), runLog, entries);
+        }
+
+        busser.updateGhRepliesForRepo(result.repo());
+    }
+}
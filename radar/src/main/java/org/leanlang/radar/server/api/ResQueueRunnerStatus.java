@@ -29,5 +29,6 @@ public record ResQueueRunnerStatus(Runners runners, Queue queue) {
         Runner runner = runners.runner(input.runner, input.token);
         RunnerStatus status = new RunnerStatus(Instant.now(), input.activeRun);
         runner.setStatus(status);
+        input.activeRun.ifPresent(it -> queue.renewLease(runner.name(), it.job()));
     }
 }
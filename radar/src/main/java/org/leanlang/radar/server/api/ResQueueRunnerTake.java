@@ -8,6 +8,7 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import java.io.IOException;
 import java.util.Optional;
+import org.leanlang.radar.Constants;
 import org.leanlang.radar.runner.supervisor.JsonJob;
 import org.leanlang.radar.server.queue.Queue;
 import org.leanlang.radar.server.runners.Runner;
@@ -17,18 +18,31 @@ import org.leanlang.radar.server.runners.Runners;
 public record ResQueueRunnerTake(Runners runners, Queue queue) {
     public static final String PATH = "/queue/runner/take/";
 
+    /**
+     * @param waitForJob
+     *   If there is currently no job, wait up to {@link Constants#QUEUE_TAKE_WAIT_TIMEOUT} for one to be enqueued
+     *   instead of returning immediately.
+     * @param systemConfigurationId
+     *   The runner's system configuration. Pools may require a specific system configuration.
+     */
     public record JsonPostInput(
             @JsonProperty(required = true) String runner,
-            @JsonProperty(required = true) String token) {}
+            @JsonProperty(required = true) String token,
+            Optional<Boolean> waitForJob,
+            Optional<String> systemConfigurationId) {}
 
     public record JsonPost(Optional<JsonJob> job) {}
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public JsonPost post(JsonPostInput input) throws IOException {
+    public JsonPost post(JsonPostInput input) throws IOException, InterruptedException {
         Runner runner = runners.runner(input.runner, input.token);
-        Optional<JsonJob> job = queue.takeJob(runner.name());
+        Optional<JsonJob> job;
+        if (input.waitForJob.orElse(false))
+            job = queue.takeJobOrWait(
+                    runner.name(), input.systemConfigurationId, Constants.QUEUE_TAKE_WAIT_TIMEOUT);
+        else job = queue.takeJob(runner.name(), input.systemConfigurationId);
         return new JsonPost(job);
     }
 }
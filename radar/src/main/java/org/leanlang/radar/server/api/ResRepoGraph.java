@@ -1,8 +1,10 @@
 package org.leanlang.radar.server.api;
 
 import static org.leanlang.radar.codegen.jooq.Tables.COMMITS;
+import static org.leanlang.radar.codegen.jooq.Tables.COMMIT_IDS;
 import static org.leanlang.radar.codegen.jooq.Tables.HISTORY;
 import static org.leanlang.radar.codegen.jooq.Tables.MEASUREMENTS;
+import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.ws.rs.BadRequestException;
@@ -13,6 +15,7 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import java.util.List;
+import java.util.Map;
 import org.jooq.impl.DSL;
 import org.leanlang.radar.server.repos.Repo;
 import org.leanlang.radar.server.repos.Repos;
@@ -52,22 +55,39 @@ public record ResRepoGraph(Repos repos) {
                             .toList()
                             .reversed();
 
+                    Map<String, Integer> metricIds = ctx.dsl()
+                            .select(METRICS.METRIC, METRICS.ID)
+                            .from(METRICS)
+                            .where(METRICS.METRIC.in(metrics))
+                            .fetchMap(METRICS.METRIC, METRICS.ID);
+
+                    // Measurements of old commits may have been archived
+                    Map<Integer, Map<Integer, Float>> archived =
+                            repo.archive().values(ctx, metricIds.values(), n);
+
                     List<JsonMetric> jsonMetrics = metrics.stream()
                             .sorted()
                             .map(it -> {
+                                // If the metric doesn't exist, this compares with null and finds no measurements
+                                Integer metricId = metricIds.get(it);
+                                Map<Integer, Float> archivedValues = archived.getOrDefault(metricId, Map.of());
                                 List<Float> measurements = ctx.dsl()
                                         .select(HISTORY.POSITION, MEASUREMENTS.VALUE)
-                                        .from(HISTORY.naturalJoin(MEASUREMENTS))
-                                        .where(MEASUREMENTS.METRIC.eq(it))
+                                        .from(HISTORY.join(COMMIT_IDS)
+                                                .on(COMMIT_IDS.CHASH.eq(HISTORY.CHASH))
+                                                .join(MEASUREMENTS)
+                                                .on(MEASUREMENTS.COMMIT_ID.eq(COMMIT_IDS.ID)))
+                                        .where(MEASUREMENTS.METRIC_ID.eq(metricId))
                                         .union(DSL.select(HISTORY.POSITION, DSL.inline((Float) null))
                                                 .from(HISTORY)
                                                 .whereNotExists(DSL.selectOne()
-                                                        .from(MEASUREMENTS)
-                                                        .where(MEASUREMENTS.CHASH.eq(HISTORY.CHASH))
-                                                        .and(MEASUREMENTS.METRIC.eq(it))))
+                                                        .from(COMMIT_IDS.join(MEASUREMENTS)
+                                                                .on(MEASUREMENTS.COMMIT_ID.eq(COMMIT_IDS.ID)))
+                                                        .where(COMMIT_IDS.CHASH.eq(HISTORY.CHASH))
+                                                        .and(MEASUREMENTS.METRIC_ID.eq(metricId))))
                                         .orderBy(HISTORY.POSITION.desc())
                                         .limit(n)
-                                        .fetch(MEASUREMENTS.VALUE)
+                                        .fetch(r -> r.value2() != null ? r.value2() : archivedValues.get(r.value1()))
                                         .reversed();
 
                                 int direction = repo.metricFilter(it).direction;
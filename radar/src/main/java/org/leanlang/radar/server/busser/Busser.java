@@ -68,6 +68,11 @@ public final class Busser implements Managed {
         executor.execute(() -> doMaintainRepo(repo, aggressive));
     }
 
+    public void backupRepo(String repoName) {
+        Repo repo = repos.repo(repoName);
+        executor.execute(() -> doBackupRepo(repo));
+    }
+
     public void recomputeSignificance(String repoName) {
         Repo repo = repos.repo(repoName);
         executor.execute(() -> doRecomputeSignificance(repo));
@@ -103,7 +108,7 @@ public final class Busser implements Managed {
         if (githubBotUpdater != null) githubBotUpdater.fetch();
         new RepoDataUpdater(repo).update();
         if (githubBotUpdater != null) githubBotUpdater.update();
-        new QueueUpdater(repo, queue).update();
+        new QueueUpdater(queue, repos, repo).update();
         new QuantileUpdater(repo).update(); // Before significance updater
         new SignificanceUpdater(queue, repos, repo).update();
         if (zulipBotUpdater != null) zulipBotUpdater.update();
@@ -143,6 +148,11 @@ public final class Busser implements Managed {
         new RepoMaintainer(repo).maintain(aggressive);
     }
 
+    private synchronized void doBackupRepo(Repo repo) {
+        // Keep one more so a manual backup doesn't immediately replace the oldest daily backup
+        new RepoMaintainer(repo).dbBackup(repo.dbBackups() + 1);
+    }
+
     private synchronized void doRecomputeSignificance(Repo repo) {
         SignificanceUpdater significanceUpdater = new SignificanceUpdater(queue, repos, repo);
         significanceUpdater.clearAll();
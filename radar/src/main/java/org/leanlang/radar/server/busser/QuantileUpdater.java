@@ -1,56 +1,108 @@
 package org.leanlang.radar.server.busser;
 
+import static org.leanlang.radar.codegen.jooq.Tables.COMMIT_IDS;
 import static org.leanlang.radar.codegen.jooq.Tables.HISTORY;
 import static org.leanlang.radar.codegen.jooq.Tables.MEASUREMENTS;
 import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
 import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE;
 import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE_LAST_UPDATED;
+import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE_PENDING;
+import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE_WINDOWS;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.IntStream;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.jooq.Configuration;
+import org.jooq.impl.DSL;
 import org.leanlang.radar.Constants;
+import org.leanlang.radar.codegen.jooq.tables.records.QuantilePendingRecord;
+import org.leanlang.radar.codegen.jooq.tables.records.QuantileRecord;
+import org.leanlang.radar.codegen.jooq.tables.records.QuantileWindowsRecord;
+import org.leanlang.radar.server.compare.CommitComparisonStore;
+import org.leanlang.radar.server.compare.QuantileWindow;
 import org.leanlang.radar.server.repos.Repo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public record QuantileUpdater(Repo repo) {
     private static final Logger log = LoggerFactory.getLogger(QuantileUpdater.class);
+    private static final int BATCH_SIZE = 1000;
 
     public void update() throws GitAPIException {
         Instant now = Instant.now();
-        if (!shouldUpdate(now)) return;
+        if (shouldUpdate(now)) rebuild(now);
+        else addPendingRuns();
+    }
+
+    /**
+     * Rebuild all windows and quantiles from scratch.
+     */
+    private void rebuild(Instant now) {
         log.info("Updating quantiles for repo {}", repo.name());
 
+        // Only the final swap needs the write lock. Everything else happens outside of any write transaction.
+        Instant start = Instant.now();
+        Update update = repo.db().readTransactionResult(this::fetchWindows);
+        QuantileWindow[] windows = update.windows();
+        Instant fetched = Instant.now();
+        float[] quantiles = computeQuantiles(windows);
+        Instant computed = Instant.now();
         repo.db().writeTransaction(ctx -> {
-            List<String> metrics =
-                    ctx.dsl().selectFrom(METRICS).orderBy(METRICS.METRIC).fetch(METRICS.METRIC);
-            deleteQuantiles(ctx);
-
-            Instant start = Instant.now();
-            int n = metrics.size();
-            int i = 0;
+            replaceWindows(ctx, windows);
+            replaceQuantiles(ctx, quantiles);
+            deletePending(ctx, update.pending());
+            CommitComparisonStore.increaseQuantileVersion(ctx);
+            setLastUpdated(ctx, now);
+        });
+        Instant written = Instant.now();
 
-            for (String metric : metrics) {
-                updateQuantileForMetric(ctx, metric);
+        int n = count(windows);
+        Duration total = start.until(written);
+        log.info(
+                "{} quantiles for {} metrics in {} ms (fetch {} ms, compute {} ms, write {} ms), {} ms/metric",
+                countQuantiles(quantiles),
+                n,
+                total.toMillis(),
+                start.until(fetched).toMillis(),
+                fetched.until(computed).toMillis(),
+                computed.until(written).toMillis(),
+                n == 0 ? 0 : (double) total.toMillis() / n);
 
-                i++;
-                if (i % 1000 != 0) continue;
-                long msPerMetric = start.until(Instant.now()).toMillis() / i;
-                log.debug("Quantile {}/{}, on average {} ms/metric", i, n, msPerMetric);
-            }
+        log.info("Updated quantiles for repo {}", repo.name());
+    }
 
-            Duration total = start.until(Instant.now());
-            if (n == 0) log.debug("{} quantiles in {} s", n, total.toSeconds());
-            else log.debug("{} quantiles in {} s, on average {} ms/metric", n, total.toSeconds(), total.toMillis() / n);
+    /**
+     * Add the measurements of runs that finished since the last update to the stored windows and update the affected
+     * quantiles. Like the rebuild, this only holds the write lock to store the results.
+     * <p>
+     * The quantile version stays the same, so stored comparisons keep using the quantiles they were computed with
+     * until the next rebuild. Otherwise, every finished run would invalidate all stored comparisons.
+     */
+    private void addPendingRuns() {
+        Update update = repo.db().readTransactionResult(this::fetchPendingWindows);
+        if (update.pending().isEmpty()) return;
+        float[] quantiles = computeQuantiles(update.windows());
+        repo.db().writeTransaction(ctx -> {
+            mergeWindows(ctx, update.windows());
+            mergeQuantiles(ctx, quantiles);
+            deletePending(ctx, update.pending());
         });
-
-        setLastUpdated(now);
-        log.info("Updated quantiles for repo {}", repo.name());
+        log.info(
+                "Added {} runs to {} quantile windows for repo {}",
+                update.pending().size(),
+                count(update.windows()),
+                repo.name());
     }
 
     private Optional<Instant> lastUpdated() {
@@ -61,16 +113,13 @@ public record QuantileUpdater(Repo repo) {
                 .fetchOptional(QUANTILE_LAST_UPDATED.LAST_UPDATED_TIME);
     }
 
-    private void setLastUpdated(Instant since) {
+    private void setLastUpdated(Configuration ctx, Instant since) {
         log.info("Setting last updated time to {}", since);
-
-        repo.db().writeTransaction(ctx -> {
-            ctx.dsl().deleteFrom(QUANTILE_LAST_UPDATED).execute();
-            ctx.dsl()
-                    .insertInto(QUANTILE_LAST_UPDATED, QUANTILE_LAST_UPDATED.LAST_UPDATED_TIME)
-                    .values(since)
-                    .execute();
-        });
+        ctx.dsl().deleteFrom(QUANTILE_LAST_UPDATED).execute();
+        ctx.dsl()
+                .insertInto(QUANTILE_LAST_UPDATED, QUANTILE_LAST_UPDATED.LAST_UPDATED_TIME)
+                .values(since)
+                .execute();
     }
 
     private boolean shouldUpdate(Instant now) {
@@ -80,52 +129,191 @@ public record QuantileUpdater(Repo repo) {
         return timeSinceLastUpdate.compareTo(Constants.BUSSER_QUANTILE_LIFETIME) > 0;
     }
 
-    private void deleteQuantiles(Configuration ctx) {
-        ctx.dsl().deleteFrom(QUANTILE).execute();
-    }
+    /**
+     * Fetch the values of all metrics over the latest {@code quantileCommits} commits of the history in a single scan.
+     * The pending runs are fetched in the same transaction, so the new windows already contain their measurements.
+     */
+    private Update fetchWindows(Configuration ctx) throws SQLException {
+        List<QuantilePendingRecord> pending = ctx.dsl().selectFrom(QUANTILE_PENDING).fetch();
+        QuantileWindow[] windows = new QuantileWindow[maxMetricId(ctx) + 1];
 
-    private void updateQuantileForMetric(Configuration ctx, String metric) {
-        List<Float> values = ctx.dsl()
-                .selectFrom(HISTORY.join(MEASUREMENTS).on(MEASUREMENTS.CHASH.eq(HISTORY.CHASH)))
-                .where(MEASUREMENTS.METRIC.eq(metric))
-                .orderBy(HISTORY.POSITION.desc())
-                .limit(repo.quantileCommits())
-                .fetch(MEASUREMENTS.VALUE);
+        Integer maxPosition = ctx.dsl().select(DSL.max(HISTORY.POSITION)).from(HISTORY).fetchOne(0, Integer.class);
+        if (maxPosition == null) return new Update(pending, windows);
 
-        List<Float> deltas = computeDeltas(values);
-        Optional<Float> quantile = computeAbsQuantile(deltas, 0.9f);
-        if (quantile.isEmpty()) return;
+        // Reading the result set directly into the windows, indexed by metric id, avoids boxing every single row.
+        // Rows arrive in order of increasing position, so every value is appended to its window.
+        try (ResultSet rows = ctx.dsl()
+                .select(MEASUREMENTS.METRIC_ID, HISTORY.POSITION, MEASUREMENTS.VALUE)
+                .from(HISTORY.join(COMMIT_IDS)
+                        .on(COMMIT_IDS.CHASH.eq(HISTORY.CHASH))
+                        .join(MEASUREMENTS)
+                        .on(MEASUREMENTS.COMMIT_ID.eq(COMMIT_IDS.ID)))
+                .where(HISTORY.POSITION.gt(maxPosition - repo.quantileCommits()))
+                .orderBy(HISTORY.POSITION.asc())
+                .fetchResultSet()) {
 
-        ctx.dsl()
-                .insertInto(QUANTILE, QUANTILE.METRIC, QUANTILE.VALUE)
-                .values(metric, quantile.get())
-                .execute();
+            while (rows.next()) {
+                window(windows, rows.getInt(1)).add(rows.getInt(2), rows.getFloat(3));
+            }
+        }
+
+        return new Update(pending, windows);
     }
 
-    private List<Float> computeDeltas(List<Float> values) {
-        ArrayList<Float> deltas = new ArrayList<>();
-        for (int i = 0; i < values.size() - 1; i++) {
-            Float first = values.get(i);
-            Float second = values.get(i + 1);
-            if (first == null || second == null) continue;
-            deltas.add(second - first);
+    /**
+     * Fetch the stored windows of all metrics measured by the pending runs and add the new values to them.
+     * Only commits among the latest {@code quantileCommits} commits of the history are part of the windows.
+     *
+     * @return the windows that changed, indexed by metric id
+     */
+    private Update fetchPendingWindows(Configuration ctx) throws SQLException {
+        List<QuantilePendingRecord> pending = ctx.dsl().selectFrom(QUANTILE_PENDING).fetch();
+        if (pending.isEmpty()) return new Update(pending, new QuantileWindow[0]);
+        QuantileWindow[] windows = new QuantileWindow[maxMetricId(ctx) + 1];
+
+        Integer maxPosition = ctx.dsl().select(DSL.max(HISTORY.POSITION)).from(HISTORY).fetchOne(0, Integer.class);
+        if (maxPosition == null) return new Update(pending, windows);
+        int minPosition = maxPosition - repo.quantileCommits() + 1;
+
+        // Measurements only ever hold the first value per metric, so it doesn't matter which run added them.
+        List<String> chashes = pending.stream().map(QuantilePendingRecord::getChash).distinct().toList();
+        QuantileWindow[] added = new QuantileWindow[windows.length];
+        for (List<String> batch : batches(chashes)) {
+            try (ResultSet rows = ctx.dsl()
+                    .select(MEASUREMENTS.METRIC_ID, HISTORY.POSITION, MEASUREMENTS.VALUE)
+                    .from(HISTORY.join(COMMIT_IDS)
+                            .on(COMMIT_IDS.CHASH.eq(HISTORY.CHASH))
+                            .join(MEASUREMENTS)
+                            .on(MEASUREMENTS.COMMIT_ID.eq(COMMIT_IDS.ID)))
+                    .where(HISTORY.CHASH.in(batch))
+                    .and(HISTORY.POSITION.ge(minPosition))
+                    .fetchResultSet()) {
+
+                while (rows.next()) {
+                    window(added, rows.getInt(1)).add(rows.getInt(2), rows.getFloat(3));
+                }
+            }
+        }
+
+        List<Integer> addedIds =
+                IntStream.range(0, added.length).filter(id -> added[id] != null).boxed().toList();
+        for (List<Integer> batch : batches(addedIds)) {
+            Map<Integer, byte[]> stored = ctx.dsl()
+                    .select(QUANTILE_WINDOWS.METRIC_ID, QUANTILE_WINDOWS.DATA)
+                    .from(QUANTILE_WINDOWS)
+                    .where(QUANTILE_WINDOWS.METRIC_ID.in(batch))
+                    .fetchMap(QUANTILE_WINDOWS.METRIC_ID, QUANTILE_WINDOWS.DATA);
+
+            for (int id : batch) {
+                byte[] data = stored.get(id);
+                QuantileWindow window = data == null ? new QuantileWindow() : QuantileWindow.decode(data);
+                // The commits may already be in the window, e.g. if an earlier run measured the same metrics
+                if (!window.addAll(added[id])) continue;
+                window.removeBefore(minPosition);
+                windows[id] = window;
+            }
         }
-        return deltas;
+
+        return new Update(pending, windows);
+    }
+
+    private static int maxMetricId(Configuration ctx) {
+        Integer maxId = ctx.dsl().select(DSL.max(METRICS.ID)).from(METRICS).fetchOne(0, Integer.class);
+        return maxId == null ? -1 : maxId;
+    }
+
+    private static QuantileWindow window(QuantileWindow[] windows, int id) {
+        QuantileWindow window = windows[id];
+        if (window == null) windows[id] = window = new QuantileWindow();
+        return window;
+    }
+
+    private static int count(QuantileWindow[] windows) {
+        return (int) Arrays.stream(windows).filter(Objects::nonNull).count();
+    }
+
+    private static int countQuantiles(float[] quantiles) {
+        return (int) IntStream.range(0, quantiles.length)
+                .filter(id -> !Float.isNaN(quantiles[id]))
+                .count();
+    }
+
+    /**
+     * Compute the quantiles of all metrics in parallel.
+     *
+     * @return the quantile of each metric, indexed by metric id, or NaN for metrics without a window or with too few
+     *     values
+     */
+    private static float[] computeQuantiles(QuantileWindow[] windows) {
+        float[] quantiles = new float[windows.length];
+        IntStream.range(0, windows.length)
+                .parallel()
+                .forEach(id -> quantiles[id] = windows[id] == null ? Float.NaN : windows[id].quantile());
+        return quantiles;
+    }
+
+    private static List<QuantileWindowsRecord> windowRecords(QuantileWindow[] windows, Set<Integer> ids) {
+        return IntStream.range(0, windows.length)
+                .filter(id -> windows[id] != null && ids.contains(id))
+                .mapToObj(id -> new QuantileWindowsRecord(id, windows[id].encode()))
+                .toList();
+    }
+
+    private static List<QuantileRecord> quantileRecords(float[] quantiles, Map<Integer, String> metrics) {
+        return IntStream.range(0, quantiles.length)
+                .filter(id -> !Float.isNaN(quantiles[id]) && metrics.containsKey(id))
+                .mapToObj(id -> new QuantileRecord(metrics.get(id), quantiles[id]))
+                .toList();
+    }
+
+    private void replaceWindows(Configuration ctx, QuantileWindow[] windows) {
+        // Metrics may have been deleted since the windows were fetched
+        Set<Integer> ids = new HashSet<>(ctx.dsl().select(METRICS.ID).from(METRICS).fetch(METRICS.ID));
+        ctx.dsl().deleteFrom(QUANTILE_WINDOWS).execute();
+        ctx.dsl().batchInsert(windowRecords(windows, ids)).execute();
+    }
+
+    private void replaceQuantiles(Configuration ctx, float[] quantiles) {
+        Map<Integer, String> metrics =
+                ctx.dsl().select(METRICS.ID, METRICS.METRIC).from(METRICS).fetchMap(METRICS.ID, METRICS.METRIC);
+        ctx.dsl().deleteFrom(QUANTILE).execute();
+        ctx.dsl().batchInsert(quantileRecords(quantiles, metrics)).execute();
     }
 
-    private Optional<Float> computeAbsQuantile(List<Float> deltas, float quantile) {
-        if (deltas.size() < 10) return Optional.empty();
-        quantile = Float.max(0, Float.min(1, quantile));
+    private void mergeWindows(Configuration ctx, QuantileWindow[] windows) {
+        // Metrics may have been deleted since the windows were fetched
+        Set<Integer> ids = new HashSet<>(ctx.dsl().select(METRICS.ID).from(METRICS).fetch(METRICS.ID));
+        ctx.dsl().batchMerge(windowRecords(windows, ids)).execute();
+    }
 
-        List<Float> values = deltas.stream().map(Math::abs).sorted().toList();
-        int top = values.size() - 1;
+    private void mergeQuantiles(Configuration ctx, float[] quantiles) {
+        Map<Integer, String> metrics =
+                ctx.dsl().select(METRICS.ID, METRICS.METRIC).from(METRICS).fetchMap(METRICS.ID, METRICS.METRIC);
+        ctx.dsl().batchMerge(quantileRecords(quantiles, metrics)).execute();
+    }
 
-        float x = quantile * top;
-        int index = Math.round(x);
-        if (index >= top) return Optional.of(values.get(top));
+    /**
+     * Delete the pending runs that were added to the windows. Runs that finished in the meantime stay pending.
+     */
+    private void deletePending(Configuration ctx, List<QuantilePendingRecord> pending) {
+        for (List<QuantilePendingRecord> batch : batches(pending)) {
+            ctx.dsl().batchDelete(batch).execute();
+        }
+    }
 
-        float weight = x - index;
-        float result = values.get(index) * (1 - weight) + values.get(index + 1) * weight;
-        return Optional.of(result);
+    /**
+     * Split a list into batches small enough for a single statement.
+     */
+    private static <T> List<List<T>> batches(List<T> list) {
+        List<List<T>> result = new ArrayList<>();
+        for (int start = 0; start < list.size(); start += BATCH_SIZE) {
+            result.add(list.subList(start, Math.min(start + BATCH_SIZE, list.size())));
+        }
+        return result;
     }
+
+    /**
+     * @param windows the windows to store, indexed by metric id, with null for metrics whose window is unchanged
+     */
+    private record Update(List<QuantilePendingRecord> pending, QuantileWindow[] windows) {}
 }
@@ -3,22 +3,35 @@ package org.leanlang.radar.server.busser;
 import static org.leanlang.radar.codegen.jooq.Tables.COMMITS;
 import static org.leanlang.radar.codegen.jooq.Tables.HISTORY;
 import static org.leanlang.radar.codegen.jooq.Tables.QUEUE;
+import static org.leanlang.radar.codegen.jooq.Tables.QUEUE_BISECTED;
+import static org.leanlang.radar.codegen.jooq.Tables.QUEUE_DEFERRED;
 import static org.leanlang.radar.codegen.jooq.Tables.QUEUE_SEEN;
+import static org.leanlang.radar.codegen.jooq.Tables.RUNS;
+import static org.leanlang.radar.codegen.jooq.Tables.SIGNIFICANCE_FEED;
 
+import java.util.ArrayList;
 import java.util.List;
+import org.jooq.Record4;
 import org.jooq.impl.DSL;
 import org.leanlang.radar.Constants;
+import org.leanlang.radar.codegen.jooq.tables.records.HistoryRecord;
+import org.leanlang.radar.server.compare.CommitComparer;
 import org.leanlang.radar.server.queue.Queue;
 import org.leanlang.radar.server.repos.Repo;
+import org.leanlang.radar.server.repos.Repos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public record QueueUpdater(Repo repo, Queue queue) {
+public record QueueUpdater(Queue queue, Repos repos, Repo repo) {
     private static final Logger log = LoggerFactory.getLogger(QueueUpdater.class);
 
     public void update() {
         log.info("Updating queue for repo {}", repo.name());
         markAllCommitsSeenOnInitialRun();
+        if (repo.backlogSampleStride() > 1) {
+            deferUnsampledCommits();
+            bisectDeferredGaps();
+        }
         enqueueUnseenHistoricCommits();
         log.info("Updated queue for repo {}", repo.name());
     }
@@ -42,6 +55,117 @@ public record QueueUpdater(Repo repo, Queue queue) {
         });
     }
 
+    private void deferUnsampledCommits() {
+        // Only every nth commit and the newest commit are sampled.
+        // All other new commits, as well as those still waiting in the queue, are deferred.
+        // Commits enqueued with a higher priority than new commits (e.g. via a bot command) are never deferred,
+        // and neither are commits enqueued by bisection. Otherwise, they would be deferred and enqueued again forever.
+        int stride = repo.backlogSampleStride();
+        Integer tip = repo.db()
+                .read()
+                .dsl()
+                .select(DSL.max(HISTORY.POSITION))
+                .from(HISTORY)
+                .fetchOne(0, Integer.class);
+        if (tip == null) return;
+
+        List<HistoryRecord> candidates = repo.db()
+                .read()
+                .dsl()
+                .selectFrom(HISTORY)
+                .whereNotExists(DSL.selectOne().from(QUEUE_SEEN).where(QUEUE_SEEN.CHASH.eq(HISTORY.CHASH)))
+                .orExists(DSL.selectOne()
+                        .from(QUEUE)
+                        .where(QUEUE.CHASH.eq(HISTORY.CHASH))
+                        .and(QUEUE.PRIORITY.le(Constants.PRIORITY_NEW_COMMIT))
+                        .andNotExists(DSL.selectOne()
+                                .from(QUEUE_BISECTED)
+                                .where(QUEUE_BISECTED.CHASH.eq(HISTORY.CHASH))))
+                .orderBy(HISTORY.POSITION.asc())
+                .fetch();
+
+        List<String> toDefer = new ArrayList<>();
+        for (HistoryRecord candidate : candidates) {
+            int position = candidate.getPosition();
+            if (position % stride == 0 || position == tip) continue;
+            toDefer.add(candidate.getChash());
+        }
+
+        if (toDefer.isEmpty()) return;
+        List<String> deferred = queue.deferAll(repo.name(), toDefer);
+        if (!deferred.isEmpty()) log.info("Deferred {} unsampled commits", deferred.size());
+    }
+
+    private void bisectDeferredGaps() {
+        // Not in a transaction because comparing commits may take a while,
+        // see SignificanceUpdater.computeSequentialSignificances for why this is fine.
+
+        List<Record4<String, Boolean, Boolean, Boolean>> commits = repo.db()
+                .read()
+                .dsl()
+                .select(
+                        HISTORY.CHASH,
+                        DSL.exists(DSL.selectOne().from(RUNS).where(RUNS.CHASH.eq(HISTORY.CHASH))),
+                        DSL.exists(DSL.selectOne().from(QUEUE).where(QUEUE.CHASH.eq(HISTORY.CHASH))),
+                        DSL.exists(DSL.selectOne()
+                                .from(QUEUE_DEFERRED)
+                                .where(QUEUE_DEFERRED.CHASH.eq(HISTORY.CHASH))))
+                .from(HISTORY)
+                .orderBy(HISTORY.POSITION.asc())
+                .stream()
+                .toList();
+
+        // A gap consists of only deferred commits between two benchmarked commits.
+        int gapStart = -1;
+        boolean onlyDeferred = true;
+        for (int i = 0; i < commits.size(); i++) {
+            Record4<String, Boolean, Boolean, Boolean> cur = commits.get(i);
+            boolean curHasRuns = cur.value2();
+            boolean curInQueue = cur.value3();
+            boolean curDeferred = cur.value4();
+
+            if (curHasRuns && !curInQueue) {
+                if (gapStart >= 0 && i - gapStart > 1 && onlyDeferred) bisectGap(commits.subList(gapStart, i + 1));
+                gapStart = i;
+                onlyDeferred = true;
+            } else if (curInQueue || !curDeferred) {
+                onlyDeferred = false;
+            }
+        }
+    }
+
+    private void bisectGap(List<Record4<String, Boolean, Boolean, Boolean>> gap) {
+        String first = gap.getFirst().value1();
+        String last = gap.getLast().value1();
+        List<String> between = gap.subList(1, gap.size() - 1).stream().map(Record4::value1).toList();
+
+        if (CommitComparer.compareCommits(queue, repos, repo, first, last).significant()) {
+            String middle = between.get(between.size() / 2);
+            log.info("Commits {} and {} differ significantly, bisecting at {}", first, last, middle);
+            repo.db()
+                    .writeTransaction(ctx -> ctx.dsl()
+                            .insertInto(QUEUE_BISECTED, QUEUE_BISECTED.CHASH)
+                            .values(middle)
+                            .onDuplicateKeyIgnore()
+                            .execute());
+            queue.enqueueSoft(repo.name(), middle, Constants.PRIORITY_NEW_COMMIT);
+            return;
+        }
+
+        log.info("Commits {} and {} don't differ significantly, skipping {} commits", first, last, between.size());
+        repo.db().writeTransaction(ctx -> {
+            ctx.dsl().deleteFrom(QUEUE_DEFERRED).where(QUEUE_DEFERRED.CHASH.in(between)).execute();
+
+            // The skipped commits count as insignificant so the significance feed can move past them.
+            var insert =
+                    ctx.dsl().insertInto(SIGNIFICANCE_FEED, SIGNIFICANCE_FEED.CHASH, SIGNIFICANCE_FEED.SIGNIFICANT);
+            for (String chash : between) {
+                insert = insert.values(chash, 0);
+            }
+            insert.onDuplicateKeyIgnore().execute();
+        });
+    }
+
     private void enqueueUnseenHistoricCommits() {
         // Find all commits that are now in the history and have never been in the queue (i.e. seen).
         List<String> toEnqueue = repo.db()
@@ -53,10 +177,9 @@ public record QueueUpdater(Repo repo, Queue queue) {
                 .orderBy(HISTORY.POSITION.asc())
                 .fetch(HISTORY.CHASH);
 
+        if (toEnqueue.isEmpty()) return;
         log.info("Adding {} commits to queue", toEnqueue.size());
-        for (String chash : toEnqueue) {
-            queue.enqueueSoft(repo.name(), chash, Constants.PRIORITY_NEW_COMMIT);
-        }
-        log.info("Added {} commits to queue", toEnqueue.size());
+        List<String> added = queue.enqueueSoftAll(repo.name(), toEnqueue, Constants.PRIORITY_NEW_COMMIT);
+        log.info("Added {} commits to queue", added.size());
     }
 }
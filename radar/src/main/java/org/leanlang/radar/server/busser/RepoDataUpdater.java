@@ -2,15 +2,27 @@ package org.leanlang.radar.server.busser;
 
 import static org.leanlang.radar.codegen.jooq.Tables.COMMITS;
 import static org.leanlang.radar.codegen.jooq.Tables.HISTORY;
+import static org.leanlang.radar.codegen.jooq.Tables.HISTORY_CONFIG;
+import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE_LAST_UPDATED;
+import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE_WINDOWS;
+import static org.leanlang.radar.codegen.jooq.Tables.REF_TIPS;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.StreamSupport;
 import org.eclipse.jgit.api.LogCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
@@ -21,6 +33,7 @@ import org.jooq.Configuration;
 import org.leanlang.radar.codegen.jooq.tables.records.CommitRelationshipsRecord;
 import org.leanlang.radar.codegen.jooq.tables.records.CommitsRecord;
 import org.leanlang.radar.codegen.jooq.tables.records.HistoryRecord;
+import org.leanlang.radar.codegen.jooq.tables.records.RefTipsRecord;
 import org.leanlang.radar.server.repos.Repo;
 import org.leanlang.radar.server.repos.RepoGit;
 import org.slf4j.Logger;
@@ -29,6 +42,9 @@ import org.slf4j.LoggerFactory;
 public record RepoDataUpdater(Repo repo) {
     private static final Logger log = LoggerFactory.getLogger(RepoDataUpdater.class);
 
+    // Number of hashes to check for existence in a single query, well below SQLite's limit of 32766 parameters
+    private static final int EXISTING_BATCH_SIZE = 1000;
+
     public void update() throws GitAPIException {
         log.info("Updating commits for repo {}", repo.name());
         repo.git().fetch();
@@ -37,20 +53,81 @@ public record RepoDataUpdater(Repo repo) {
         log.info("Updated commits for repo {}", repo.name());
     }
 
-    private void updateRepoData() {
+    private void updateRepoData() throws GitAPIException {
+        Map<String, String> refTips;
+        try {
+            refTips = refTips();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // If no ref moved, there are no new commits.
+        // If the history config didn't change either, the history is still the same.
+        Map<String, String> oldRefTips =
+                repo.db().read().dsl().selectFrom(REF_TIPS).fetchMap(REF_TIPS.REF, REF_TIPS.CHASH);
+        String historyConfig = repo.historyConfig();
+        Optional<String> oldHistoryConfig =
+                repo.db().read().dsl().selectFrom(HISTORY_CONFIG).fetchOptional(HISTORY_CONFIG.CONFIG);
+        if (oldRefTips.equals(refTips) && oldHistoryConfig.equals(Optional.of(historyConfig))) {
+            log.info("Refs and history config unchanged, skipping update");
+            return;
+        }
+
         repo.db().writeTransaction(tx -> {
-            insertNewCommits(tx);
+            insertNewCommits(tx, oldRefTips.values(), refTips.values());
             updateHistory(tx);
+            updateRefTips(tx, oldRefTips, refTips);
+            setHistoryConfig(tx, historyConfig);
         });
     }
 
-    private void insertNewCommits(Configuration tx) throws IOException, GitAPIException {
-        Set<String> existing = tx.dsl().selectFrom(COMMITS).fetchSet(COMMITS.CHASH);
+    private Map<String, String> refTips() throws IOException {
+        RepoGit git = repo.git();
+        Map<String, String> result = new HashMap<>();
+        for (Ref ref : git.plumbing().getRefDatabase().getRefs()) {
+            result.put(ref.getName(), git.resolveRef(ref).name());
+        }
+        return result;
+    }
+
+    /**
+     * Insert all commits reachable from the new ref tips but not from the old ones.
+     * This way, only commits that were pushed since the last update need to be walked.
+     */
+    private void insertNewCommits(Configuration tx, Collection<String> oldTips, Collection<String> newTips)
+            throws IOException {
+
+        List<RevCommit> commits = new ArrayList<>();
+        try (RevWalk walk = new RevWalk(repo.git().plumbing())) {
+            for (String tip : newTips) {
+                Optional<RevCommit> commit = parseCommit(walk, tip);
+                if (commit.isPresent()) walk.markStart(commit.get());
+            }
+            for (String tip : oldTips) {
+                Optional<RevCommit> commit = parseCommit(walk, tip);
+                if (commit.isPresent()) walk.markUninteresting(commit.get());
+            }
+            walk.forEach(commits::add);
+        }
+
+        // If the old tips are incomplete, e.g. because the ref tips weren't tracked before,
+        // the walk may include commits that are already in the DB.
+        Set<String> existing = new HashSet<>();
+        for (int i = 0; i < commits.size(); i += EXISTING_BATCH_SIZE) {
+            List<String> batch = commits.subList(i, Math.min(i + EXISTING_BATCH_SIZE, commits.size())).stream()
+                    .map(AnyObjectId::name)
+                    .toList();
+            existing.addAll(tx.dsl()
+                    .select(COMMITS.CHASH)
+                    .from(COMMITS)
+                    .where(COMMITS.CHASH.in(batch))
+                    .fetchSet(COMMITS.CHASH));
+        }
 
         List<CommitsRecord> commitsToInsert = new ArrayList<>();
         List<CommitRelationshipsRecord> relationshipsToInsert = new ArrayList<>();
 
-        for (RevCommit commit : repo.git().porcelain().log().all().call()) {
+        for (RevCommit commit : commits) {
             if (!existing.contains(commit.name())) {
                 CommitsRecord commitRecord = new CommitsRecord();
                 commitRecord.setChash(commit.name());
@@ -86,7 +163,38 @@ public record RepoDataUpdater(Repo repo) {
 
         tx.dsl().batchInsert(commitsToInsert).execute();
         tx.dsl().batchInsert(relationshipsToInsert).execute();
-        log.info("Inserted {} commits and {} relationships", commitsToInsert.size(), relationshipsToInsert.size());
+        log.info(
+                "Walked {} commits, inserted {} commits and {} relationships",
+                commits.size(),
+                commitsToInsert.size(),
+                relationshipsToInsert.size());
+    }
+
+    private static Optional<RevCommit> parseCommit(RevWalk walk, String chash) throws IOException {
+        try {
+            return Optional.of(walk.parseCommit(ObjectId.fromString(chash)));
+        } catch (MissingObjectException | IncorrectObjectTypeException e) {
+            // Refs may point to non-commit objects, and old tips may no longer exist
+            return Optional.empty();
+        }
+    }
+
+    private void updateRefTips(Configuration tx, Map<String, String> oldRefTips, Map<String, String> newRefTips) {
+        Set<String> removed = new HashSet<>(oldRefTips.keySet());
+        removed.removeAll(newRefTips.keySet());
+        if (!removed.isEmpty()) tx.dsl().deleteFrom(REF_TIPS).where(REF_TIPS.REF.in(removed)).execute();
+
+        List<RefTipsRecord> changed = newRefTips.entrySet().stream()
+                .filter(it -> !it.getValue().equals(oldRefTips.get(it.getKey())))
+                .map(it -> new RefTipsRecord(it.getKey(), it.getValue()))
+                .toList();
+        tx.dsl().batchMerge(changed).execute();
+        log.info("Updated {} and removed {} ref tips", changed.size(), removed.size());
+    }
+
+    private void setHistoryConfig(Configuration tx, String historyConfig) {
+        tx.dsl().deleteFrom(HISTORY_CONFIG).execute();
+        tx.dsl().insertInto(HISTORY_CONFIG, HISTORY_CONFIG.CONFIG).values(historyConfig).execute();
     }
 
     private void updateHistory(Configuration tx) throws IOException, GitAPIException {
@@ -98,14 +206,34 @@ public record RepoDataUpdater(Repo repo) {
         else if (repo.refParentsFirst()) hashesInChronologicalOrder = chronologicalHashesFirstParent(refs);
         else hashesInChronologicalOrder = chronologicalHashesTopo(refs);
 
+        List<String> oldHashes =
+                tx.dsl().selectFrom(HISTORY).orderBy(HISTORY.POSITION).fetch(HISTORY.CHASH);
+
+        // Usually, new commits are only appended to the history,
+        // so only the part after the longest common prefix needs to be rewritten.
+        int common = 0;
+        int maxCommon = Math.min(oldHashes.size(), hashesInChronologicalOrder.size());
+        while (common < maxCommon && oldHashes.get(common).equals(hashesInChronologicalOrder.get(common))) common++;
+
         List<HistoryRecord> records = new ArrayList<>();
-        for (int i = 0; i < hashesInChronologicalOrder.size(); i++) {
+        for (int i = common; i < hashesInChronologicalOrder.size(); i++) {
             records.add(new HistoryRecord(i, hashesInChronologicalOrder.get(i)));
         }
 
-        tx.dsl().deleteFrom(HISTORY).execute();
+        int deleted = tx.dsl().deleteFrom(HISTORY).where(HISTORY.POSITION.ge(common)).execute();
         tx.dsl().batchInsert(records).execute();
-        log.info("Updated {} history commits", records.size());
+        if (deleted > 0) {
+            // The quantile windows are indexed by history position, so they are no longer valid.
+            // The quantile updater rebuilds them on its next run.
+            tx.dsl().deleteFrom(QUANTILE_WINDOWS).execute();
+            tx.dsl().deleteFrom(QUANTILE_LAST_UPDATED).execute();
+        }
+        log.info(
+                "Updated history of {} commits, removed {} and added {} commits after position {}",
+                hashesInChronologicalOrder.size(),
+                deleted,
+                records.size(),
+                common);
     }
 
     private List<ObjectId> refsInAlphabeticalOrder() throws IOException, GitAPIException {
@@ -1,6 +1,7 @@
 package org.leanlang.radar.server.busser;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.leanlang.radar.server.compare.CommitComparisonStore;
 import org.leanlang.radar.server.repos.Repo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,18 +11,52 @@ public record RepoMaintainer(Repo repo) {
 
     public void maintain(boolean aggressive) {
         log.info("Maintaining repo {}{}", repo.name(), aggressive ? " aggressively" : "");
+        if (repo.dbBackups() > 0) dbBackup(repo.dbBackups());
+        if (repo.dbArchiveAfterCommits() > 0) dbArchive();
+        dbPruneComparisons();
         if (aggressive) dbVacuum();
         dbPragmaOptimize();
         gitGc();
         log.info("Maintained repo {}", repo.name());
     }
 
+    public void dbBackup(int keep) {
+        log.info("Backing up DB");
+        try {
+            repo.backupDb(keep);
+        } catch (Exception e) {
+            log.error("Failed to back up DB", e);
+        }
+        log.info("Backed up DB");
+    }
+
+    private void dbArchive() {
+        log.info("Archiving old measurements");
+        try {
+            // Quantiles are only computed from measurements that are still in the DB
+            repo.archive().archive(Math.max(repo.dbArchiveAfterCommits(), repo.quantileCommits()));
+        } catch (Exception e) {
+            log.error("Failed to archive old measurements", e);
+        }
+        log.info("Archived old measurements");
+    }
+
+    private void dbPruneComparisons() {
+        log.info("Pruning stored comparisons");
+        try {
+            CommitComparisonStore.prune(repo);
+        } catch (Exception e) {
+            log.error("Failed to prune stored comparisons", e);
+        }
+        log.info("Pruned stored comparisons");
+    }
+
     private void dbVacuum() {
         log.info("Vacuuming");
         try {
-            repo.db().writeWithoutTransactionDoNotUseUnlessYouKnowWhatYouAreDoing(ctx -> ctx.dsl()
-                    .execute("VACUUM"));
-        } catch (Throwable e) {
+            // A plain VACUUM would block all writes, including runners submitting results, until it is done.
+            repo.db().vacuumOnline();
+        } catch (Exception e) {
             log.error("Failed to vacuum", e);
         }
         log.info("Vacuumed");
@@ -5,15 +5,18 @@ import static org.leanlang.radar.codegen.jooq.Tables.QUEUE;
 import static org.leanlang.radar.codegen.jooq.Tables.RUNS;
 import static org.leanlang.radar.codegen.jooq.Tables.SIGNIFICANCE_FEED;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import org.jooq.Record4;
 import org.jooq.impl.DSL;
 import org.leanlang.radar.codegen.jooq.tables.records.HistoryRecord;
 import org.leanlang.radar.server.compare.CommitComparer;
-import org.leanlang.radar.server.compare.JsonCommitComparison;
+import org.leanlang.radar.server.compare.CommitPair;
 import org.leanlang.radar.server.queue.Queue;
 import org.leanlang.radar.server.repos.Repo;
+import org.leanlang.radar.server.repos.RepoDb;
 import org.leanlang.radar.server.repos.Repos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,7 +72,7 @@ public record SignificanceUpdater(Queue queue, Repos repos, Repo repo) {
     }
 
     private void computeSequentialSignificances() {
-        // Not in a transaction because it may take a while to complete,
+        // Not in a write transaction because it may take a while to complete,
         // and we're only modifying the significance feed table.
         // If anything changes while we're doing this,
         // we're going to notice at the next iteration and fill in the relevant significances then.
@@ -91,30 +94,41 @@ public record SignificanceUpdater(Queue queue, Repos repos, Repo repo) {
                 .stream()
                 .toList();
 
-        for (int i = 0; i < commits.size(); i++) {
-            Record4<String, Boolean, Boolean, Boolean> cur = commits.get(i);
+        // Commits are compared against the most recent commit with runs.
+        // Usually, that's their parent, unless commits in between were skipped by bisection.
+        String prevHash = null;
+        List<CommitPair> pairs = new ArrayList<>();
+        for (Record4<String, Boolean, Boolean, Boolean> cur : commits) {
             String curHash = cur.value1();
             Boolean curHasRuns = cur.value2();
             Boolean curInQueue = cur.value3();
             Boolean curInFeed = cur.value4();
 
-            if (curInFeed) continue; // No need to recompute
+            if (curInFeed) {
+                if (curHasRuns) prevHash = curHash;
+                continue; // No need to recompute
+            }
             if (!curHasRuns || curInQueue) {
                 log.info("Reached unfinished commit {}, stopping", curHash);
                 break; // Feed must be filled in sequentially, so we stop at the first gap
             }
 
-            String prevHash = null;
-            if (i > 0) prevHash = commits.get(i - 1).value1();
+            pairs.add(new CommitPair(prevHash, curHash));
+            prevHash = curHash;
+        }
 
-            JsonCommitComparison comparison = CommitComparer.compareCommits(queue, repos, repo, prevHash, curHash);
+        // Comparing all pairs in one go avoids loading the metrics, quantiles and runs again for every commit.
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        CommitComparer.compareRange(queue, repos, repo, pairs, (pair, comparison) -> {
+            String curHash = pair.chashSecond();
             boolean significant = comparison.significant();
             log.info("Adding commit {} to feed as {}", curHash, significant ? "significant" : "insignificant");
-            repo.db().writeTransaction(ctx -> ctx.dsl()
+            writes.add(repo.db().writeTransactionGrouped(ctx -> ctx.dsl()
                     .insertInto(SIGNIFICANCE_FEED, SIGNIFICANCE_FEED.CHASH, SIGNIFICANCE_FEED.SIGNIFICANT)
                     .values(curHash, significant ? 1 : 0)
                     .onDuplicateKeyIgnore()
-                    .execute());
-        }
+                    .execute()));
+        });
+        RepoDb.awaitGrouped(writes);
     }
 }
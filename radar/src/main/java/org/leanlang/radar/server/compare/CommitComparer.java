@@ -6,7 +6,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -190,7 +192,39 @@ public final class CommitComparer {
             Queue queue, Repos repos, Repo repo, @Nullable String chashFirst, @Nullable String chashSecond) {
 
         Repo quantileRepo = repo.useQuantilesFrom().map(repos::repo).orElse(repo);
+        if (chashFirst != null && chashSecond != null) {
+            Optional<JsonCommitComparison> stored =
+                    CommitComparisonStore.get(repo, quantileRepo, chashFirst, chashSecond);
+            if (stored.isPresent()) return stored.get();
+        }
+
         CommitComparerData data = CommitComparerData.load(queue, repo, quantileRepo, chashFirst, chashSecond);
-        return new CommitComparer(data).comparison();
+        JsonCommitComparison comparison = new CommitComparer(data).comparison();
+        if (chashFirst != null && chashSecond != null) {
+            CommitComparisonStore.put(repo, data, chashFirst, chashSecond, comparison);
+        }
+        return comparison;
+    }
+
+    /**
+     * Compare many pairs of commits, see {@link CommitComparerData#loadRange}. Produces the same comparisons as calling
+     * {@link #compareCommits} for each pair, but loads the shared data only once. The comparisons are always computed,
+     * but also stored for later use by {@link #compareCommits}.
+     */
+    public static void compareRange(
+            Queue queue,
+            Repos repos,
+            Repo repo,
+            List<CommitPair> pairs,
+            BiConsumer<CommitPair, JsonCommitComparison> consumer) {
+
+        Repo quantileRepo = repo.useQuantilesFrom().map(repos::repo).orElse(repo);
+        CommitComparerData.loadRange(queue, repo, quantileRepo, pairs, (pair, data) -> {
+            JsonCommitComparison comparison = new CommitComparer(data).comparison();
+            if (pair.chashFirst() != null) {
+                CommitComparisonStore.put(repo, data, pair.chashFirst(), pair.chashSecond(), comparison);
+            }
+            consumer.accept(pair, comparison);
+        });
     }
 }
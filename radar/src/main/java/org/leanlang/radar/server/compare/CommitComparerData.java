@@ -1,5 +1,7 @@
 package org.leanlang.radar.server.compare;
 
+import static org.leanlang.radar.codegen.jooq.Tables.COMMIT_IDS;
+import static org.leanlang.radar.codegen.jooq.Tables.HISTORY;
 import static org.leanlang.radar.codegen.jooq.Tables.MEASUREMENTS;
 import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
 import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE;
@@ -7,19 +9,32 @@ import static org.leanlang.radar.codegen.jooq.Tables.RUNS;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import org.jooq.Condition;
 import org.jooq.Configuration;
+import org.jooq.Cursor;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.impl.DSL;
 import org.jspecify.annotations.Nullable;
+import org.leanlang.radar.Constants;
+import org.leanlang.radar.codegen.jooq.tables.History;
 import org.leanlang.radar.codegen.jooq.tables.records.MeasurementsRecord;
 import org.leanlang.radar.codegen.jooq.tables.records.QuantileRecord;
 import org.leanlang.radar.codegen.jooq.tables.records.RunsRecord;
 import org.leanlang.radar.server.config.ServerConfigRepoMetricFilter;
 import org.leanlang.radar.server.queue.Queue;
+import org.leanlang.radar.server.repos.CommitIds;
 import org.leanlang.radar.server.repos.Repo;
 
 public record CommitComparerData(
@@ -39,59 +54,250 @@ public record CommitComparerData(
         boolean significantRunFailures,
 
         Map<String, ServerConfigRepoMetricFilter> metricFilters,
-        Map<String, JsonMetricComparison> metricComparisons) {
+        Map<String, JsonMetricComparison> metricComparisons,
+
+        // See CommitComparisonStore
+        int storeGeneration,
+        int quantileVersion) {
+
+    /**
+     * How long metrics count as new after they were first seen.
+     */
+    private static final Duration NEW_METRICS_DURATION = Duration.ofDays(1);
+
+    private record Quantiles(int version, Map<String, Float> values) {}
 
     public static CommitComparerData load(
             Queue queue, Repo repo, Repo quantileRepo, @Nullable String chashFirst, @Nullable String chashSecond) {
 
-        Map<String, Float> quantiles = fetchQuantiles(quantileRepo);
-
-        return repo.db().readTransactionResult(ctx -> {
-            List<RunsRecord> runsFirst = fetchRuns(ctx, chashFirst);
-            List<RunsRecord> runsSecond = fetchRuns(ctx, chashSecond);
-            boolean enqueuedFirst = fetchInQueue(queue, repo, chashFirst);
-            boolean enqueuedSecond = fetchInQueue(queue, repo, chashSecond);
-
-            Map<String, MeasurementsRecord> measurementsFirst = fetchMeasurements(ctx, chashFirst);
-            Map<String, MeasurementsRecord> measurementsSecond = fetchMeasurements(ctx, chashSecond);
-
-            // In some cases, the set of all metrics is very large but the union of the two commits' metrics is small.
-            // Going through all metrics in those cases leads to bad performance.
-            List<MetricInfo> metrics = fetchMetrics(ctx, quantiles).stream()
-                    .filter(it -> measurementsFirst.containsKey(it.name()) || measurementsSecond.containsKey(it.name()))
-                    .toList();
-            List<String> notableMetrics = repo.notableMetrics();
-            Optional<Instant> newMetricsCutoff =
-                    repo.newMetrics() ? Optional.of(Instant.now().minus(Duration.ofDays(1))) : Optional.empty();
-            Optional<Pattern> newMetricsOmit = repo.newMetricsOmit();
-
-            int significantLargeChanges = repo.significantLargeChanges();
-            int significantMediumChanges = repo.significantMediumChanges();
-            int significantSmallChanges = repo.significantSmallChanges();
-            boolean significantRunFailures = repo.significantRunFailures();
-
-            Map<String, ServerConfigRepoMetricFilter> metricFilters =
-                    metrics.stream().collect(Collectors.toMap(MetricInfo::name, it -> repo.metricFilter(it.name())));
-
-            Map<String, JsonMetricComparison> metricComparisons =
-                    compareMeasurements(metrics, metricFilters, measurementsFirst, measurementsSecond);
-
-            return new CommitComparerData(
-                    runsFirst,
-                    runsSecond,
-                    enqueuedFirst,
-                    enqueuedSecond,
-                    metrics,
-                    notableMetrics,
-                    newMetricsCutoff,
-                    newMetricsOmit,
-                    significantLargeChanges,
-                    significantMediumChanges,
-                    significantSmallChanges,
-                    significantRunFailures,
-                    metricFilters,
-                    metricComparisons);
-        });
+        Quantiles quantiles = fetchQuantiles(quantileRepo);
+
+        return repo.db().readTransactionResult(ctx -> create(
+                queue,
+                repo,
+                quantiles.version(),
+                CommitComparisonStore.generation(ctx.dsl()),
+                fetchMetrics(ctx, quantiles.values()),
+                chashFirst,
+                chashSecond,
+                fetchRuns(ctx, chashFirst),
+                fetchRuns(ctx, chashSecond),
+                fetchMeasurements(ctx, repo, chashFirst),
+                fetchMeasurements(ctx, repo, chashSecond)));
+    }
+
+    /**
+     * Like {@link #load(Queue, Repo, Repo, String, String)}, but for many pairs of commits at once. The pairs must be
+     * ordered by the history position of their second commit, and all commits must be part of the history.
+     * <p>
+     * The quantiles are loaded only once. The pairs are loaded in chunks of {@link Constants#COMPARE_RANGE_CHUNK_PAIRS}
+     * pairs, each in a single read transaction that loads the metrics and runs once and reads the measurements of the
+     * chunk's commits in a single pass over the history. The transaction is closed before the consumer sees the chunk,
+     * so a slow consumer doesn't keep a read transaction open.
+     */
+    public static void loadRange(
+            Queue queue,
+            Repo repo,
+            Repo quantileRepo,
+            List<CommitPair> pairs,
+            BiConsumer<CommitPair, CommitComparerData> consumer) {
+        if (pairs.isEmpty()) return;
+
+        Quantiles quantiles = fetchQuantiles(quantileRepo);
+
+        for (int start = 0; start < pairs.size(); start += Constants.COMPARE_RANGE_CHUNK_PAIRS) {
+            List<CommitPair> chunk =
+                    pairs.subList(start, Math.min(start + Constants.COMPARE_RANGE_CHUNK_PAIRS, pairs.size()));
+            List<CommitComparerData> data =
+                    repo.db().readTransactionResult(ctx -> loadChunk(ctx, queue, repo, quantiles, chunk));
+            for (int i = 0; i < chunk.size(); i++) {
+                consumer.accept(chunk.get(i), data.get(i));
+            }
+        }
+    }
+
+    private static List<CommitComparerData> loadChunk(
+            Configuration ctx, Queue queue, Repo repo, Quantiles quantiles, List<CommitPair> pairs) {
+        int storeGeneration = CommitComparisonStore.generation(ctx.dsl());
+        List<MetricInfo> allMetrics = fetchMetrics(ctx, quantiles.values());
+
+        CommitPair firstPair = pairs.getFirst();
+        String chashFrom = firstPair.chashFirst() == null ? firstPair.chashSecond() : firstPair.chashFirst();
+        String chashTo = pairs.getLast().chashSecond();
+        History h = HISTORY.as("h");
+        Condition inRange = HISTORY.POSITION.between(
+                DSL.field(DSL.select(h.POSITION).from(h).where(h.CHASH.eq(chashFrom))),
+                DSL.field(DSL.select(h.POSITION).from(h).where(h.CHASH.eq(chashTo))));
+
+        Map<String, Result<RunsRecord>> runs = ctx.dsl()
+                .selectFrom(RUNS)
+                .whereExists(DSL.selectOne()
+                        .from(HISTORY)
+                        .where(HISTORY.CHASH.eq(RUNS.CHASH))
+                        .and(inRange))
+                .fetchGroups(RUNS.CHASH);
+
+        Set<String> needed = new HashSet<>();
+        for (CommitPair pair : pairs) {
+            if (pair.chashFirst() != null) needed.add(pair.chashFirst());
+            needed.add(pair.chashSecond());
+        }
+
+        List<CommitComparerData> result = new ArrayList<>();
+        try (Cursor<Record> rows = ctx.dsl()
+                .select(HISTORY.CHASH, METRICS.METRIC)
+                .select(MEASUREMENTS.fields())
+                .from(HISTORY.join(COMMIT_IDS)
+                        .on(COMMIT_IDS.CHASH.eq(HISTORY.CHASH))
+                        .join(MEASUREMENTS)
+                        .on(MEASUREMENTS.COMMIT_ID.eq(COMMIT_IDS.ID))
+                        .join(METRICS)
+                        .on(METRICS.ID.eq(MEASUREMENTS.METRIC_ID)))
+                .where(inRange)
+                .orderBy(HISTORY.POSITION.asc())
+                .fetchLazy()) {
+
+            MeasurementsReader reader = new MeasurementsReader(ctx, repo, rows, needed);
+            for (CommitPair pair : pairs) {
+                result.add(create(
+                        queue,
+                        repo,
+                        quantiles.version(),
+                        storeGeneration,
+                        allMetrics,
+                        pair.chashFirst(),
+                        pair.chashSecond(),
+                        runsOf(runs, pair.chashFirst()),
+                        runsOf(runs, pair.chashSecond()),
+                        reader.measurements(pair.chashFirst()),
+                        reader.measurements(pair.chashSecond())));
+                reader.keepOnly(pair.chashSecond());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the measurements of commits from rows ordered by history position, keeping only the commits that were
+     * requested but not yet released. Commits must be requested in order of their history position.
+     */
+    private static final class MeasurementsReader {
+        private final Configuration ctx;
+        private final Repo repo;
+        private final Cursor<Record> rows;
+        private final Set<String> needed;
+        private final Map<String, Map<String, MeasurementsRecord>> loaded = new HashMap<>();
+        private @Nullable Record pending;
+
+        MeasurementsReader(Configuration ctx, Repo repo, Cursor<Record> rows, Set<String> needed) {
+            this.ctx = ctx;
+            this.repo = repo;
+            this.rows = rows;
+            this.needed = needed;
+            this.pending = rows.fetchNext();
+        }
+
+        Map<String, MeasurementsRecord> measurements(@Nullable String chash) {
+            if (chash == null) return Map.of();
+            Map<String, MeasurementsRecord> result = loaded.get(chash);
+            if (result != null) return result;
+
+            result = new HashMap<>();
+            while (pending != null) {
+                String rowChash = pending.get(HISTORY.CHASH);
+                // Rows of later requested commits follow all rows of this commit
+                if (!rowChash.equals(chash) && needed.contains(rowChash)) break;
+                if (rowChash.equals(chash)) {
+                    result.putIfAbsent(pending.get(METRICS.METRIC), pending.into(MEASUREMENTS));
+                }
+                pending = rows.fetchNext();
+            }
+
+            if (result.isEmpty()) result = fetchArchivedMeasurements(ctx, repo, chash);
+            needed.remove(chash);
+            loaded.put(chash, result);
+            return result;
+        }
+
+        void keepOnly(String chash) {
+            loaded.keySet().retainAll(Set.of(chash));
+        }
+    }
+
+    private static CommitComparerData create(
+            Queue queue,
+            Repo repo,
+            int quantileVersion,
+            int storeGeneration,
+            List<MetricInfo> allMetrics,
+            @Nullable String chashFirst,
+            @Nullable String chashSecond,
+            List<RunsRecord> runsFirst,
+            List<RunsRecord> runsSecond,
+            Map<String, MeasurementsRecord> measurementsFirst,
+            Map<String, MeasurementsRecord> measurementsSecond) {
+
+        boolean enqueuedFirst = fetchInQueue(queue, repo, chashFirst);
+        boolean enqueuedSecond = fetchInQueue(queue, repo, chashSecond);
+
+        // In some cases, the set of all metrics is very large but the union of the two commits' metrics is small.
+        // Going through all metrics in those cases leads to bad performance.
+        List<MetricInfo> metrics = allMetrics.stream()
+                .filter(it -> measurementsFirst.containsKey(it.name()) || measurementsSecond.containsKey(it.name()))
+                .toList();
+        List<String> notableMetrics = repo.notableMetrics();
+        Optional<Instant> newMetricsCutoff =
+                repo.newMetrics() ? Optional.of(Instant.now().minus(NEW_METRICS_DURATION)) : Optional.empty();
+        Optional<Pattern> newMetricsOmit = repo.newMetricsOmit();
+
+        int significantLargeChanges = repo.significantLargeChanges();
+        int significantMediumChanges = repo.significantMediumChanges();
+        int significantSmallChanges = repo.significantSmallChanges();
+        boolean significantRunFailures = repo.significantRunFailures();
+
+        Map<String, ServerConfigRepoMetricFilter> metricFilters =
+                metrics.stream().collect(Collectors.toMap(MetricInfo::name, it -> repo.metricFilter(it.name())));
+
+        Map<String, JsonMetricComparison> metricComparisons =
+                compareMeasurements(metrics, metricFilters, measurementsFirst, measurementsSecond);
+
+        return new CommitComparerData(
+                runsFirst,
+                runsSecond,
+                enqueuedFirst,
+                enqueuedSecond,
+                metrics,
+                notableMetrics,
+                newMetricsCutoff,
+                newMetricsOmit,
+                significantLargeChanges,
+                significantMediumChanges,
+                significantSmallChanges,
+                significantRunFailures,
+                metricFilters,
+                metricComparisons,
+                storeGeneration,
+                quantileVersion);
+    }
+
+    /**
+     * The comparison changes once one of its new metrics is no longer new, even if the data stays the same.
+     *
+     * @return the time until which the comparison stays the same, unless the data changes
+     */
+    public Optional<Instant> validUntil() {
+        if (newMetricsCutoff.isEmpty()) return Optional.empty();
+        Instant cutoff = newMetricsCutoff.get();
+        return metrics.stream()
+                .map(MetricInfo::firstSeen)
+                .filter(it -> !it.isBefore(cutoff))
+                .min(Comparator.naturalOrder())
+                .map(it -> it.plus(NEW_METRICS_DURATION));
+    }
+
+    private static List<RunsRecord> runsOf(Map<String, Result<RunsRecord>> runs, @Nullable String chash) {
+        if (chash == null || !runs.containsKey(chash)) return List.of();
+        return runs.get(chash);
     }
 
     private static List<RunsRecord> fetchRuns(Configuration ctx, @Nullable String chash) {
@@ -104,9 +310,11 @@ public record CommitComparerData(
         return queue.isEnqueued(repo.name(), chash);
     }
 
-    private static Map<String, Float> fetchQuantiles(Repo quantileRepo) {
-        return quantileRepo.db().read().dsl().selectFrom(QUANTILE).stream()
-                .collect(Collectors.toMap(QuantileRecord::getMetric, QuantileRecord::getValue));
+    private static Quantiles fetchQuantiles(Repo quantileRepo) {
+        return quantileRepo.db().readTransactionResult(ctx -> new Quantiles(
+                CommitComparisonStore.quantileVersion(ctx.dsl()),
+                ctx.dsl().selectFrom(QUANTILE).stream()
+                        .collect(Collectors.toMap(QuantileRecord::getMetric, QuantileRecord::getValue))));
     }
 
     private static List<MetricInfo> fetchMetrics(Configuration ctx, Map<String, Float> quantiles) {
@@ -119,10 +327,36 @@ public record CommitComparerData(
                 .toList();
     }
 
-    private static Map<String, MeasurementsRecord> fetchMeasurements(Configuration ctx, @Nullable String chash) {
+    private static Map<String, MeasurementsRecord> fetchMeasurements(
+            Configuration ctx, Repo repo, @Nullable String chash) {
         if (chash == null) return Map.of();
-        return ctx.dsl().selectFrom(MEASUREMENTS).where(MEASUREMENTS.CHASH.eq(chash)).stream()
-                .collect(Collectors.toMap(MeasurementsRecord::getMetric, it -> it));
+        Map<String, MeasurementsRecord> measurements = ctx.dsl()
+                .select(METRICS.METRIC)
+                .select(MEASUREMENTS.fields())
+                .from(MEASUREMENTS.join(METRICS).on(METRICS.ID.eq(MEASUREMENTS.METRIC_ID)))
+                .where(MEASUREMENTS.COMMIT_ID.eq(CommitIds.of(chash)))
+                .stream()
+                .collect(Collectors.toMap(it -> it.get(METRICS.METRIC), it -> it.into(MEASUREMENTS)));
+        if (!measurements.isEmpty()) return measurements;
+        return fetchArchivedMeasurements(ctx, repo, chash);
+    }
+
+    /**
+     * The commit's measurements may have been archived.
+     */
+    private static Map<String, MeasurementsRecord> fetchArchivedMeasurements(
+            Configuration ctx, Repo repo, String chash) {
+        Map<String, MeasurementsRecord> measurements = new HashMap<>();
+        List<MeasurementsRecord> archived = repo.archive().measurements(ctx, chash);
+        if (archived.isEmpty()) return measurements;
+        Map<Integer, String> names = ctx.dsl()
+                .select(METRICS.ID, METRICS.METRIC)
+                .from(METRICS)
+                .fetchMap(METRICS.ID, METRICS.METRIC);
+        for (MeasurementsRecord measurement : archived) {
+            measurements.putIfAbsent(names.get(measurement.getMetricId()), measurement);
+        }
+        return measurements;
     }
 
     private static Map<String, JsonMetricComparison> compareMeasurements(
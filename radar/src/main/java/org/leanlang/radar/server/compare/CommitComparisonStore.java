@@ -0,0 +1,200 @@
+package org.leanlang.radar.server.compare;
+
+import static org.leanlang.radar.codegen.jooq.Tables.COMPARISONS;
+import static org.leanlang.radar.codegen.jooq.Tables.COMPARISON_VERSIONS;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.leanlang.radar.Constants;
+import org.leanlang.radar.codegen.jooq.tables.records.ComparisonsRecord;
+import org.leanlang.radar.server.repos.Repo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finished comparisons of pairs of commits, stored in the comparisons table of the repo that contains the commits.
+ * <p>
+ * A stored comparison is only used if it was computed with the same config and the same quantiles. Everything else a
+ * comparison depends on is tied to its two commits, so changes to the data invalidate the stored comparisons of the
+ * affected commits:
+ * <ul>
+ *   <li>When a commit is enqueued or gets new runs, its comparisons are deleted.
+ *   <li>When metrics are renamed or deleted or their unit changes, all comparisons are deleted.
+ *   <li>When the quantiles are rebuilt, the quantile version is increased. Finished runs update the quantiles in
+ *       between without changing the version, so stored comparisons may use slightly older quantiles until the next
+ *       rebuild.
+ *   <li>When a comparison lists new metrics, it expires once they're no longer new.
+ * </ul>
+ * Comparisons that involve enqueued commits are not stored since they will change soon anyway.
+ * <p>
+ * Every invalidation increases the store's generation. A comparison is only stored if the generation hasn't changed
+ * since its data was read, so comparisons computed from outdated data never end up in the store.
+ */
+public final class CommitComparisonStore {
+    private static final Logger log = LoggerFactory.getLogger(CommitComparisonStore.class);
+
+    /**
+     * Increase whenever the comparison logic or its output format changes, so stored comparisons are recomputed.
+     */
+    private static final int FORMAT = 1;
+
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    private CommitComparisonStore() {}
+
+    public static Optional<JsonCommitComparison> get(
+            Repo repo, Repo quantileRepo, String chashFirst, String chashSecond) {
+        int quantileVersion = quantileVersion(quantileRepo.db().read().dsl());
+        ComparisonsRecord record = repo.db()
+                .read()
+                .dsl()
+                .selectFrom(COMPARISONS)
+                .where(COMPARISONS.CHASH_FIRST.eq(chashFirst))
+                .and(COMPARISONS.CHASH_SECOND.eq(chashSecond))
+                .and(COMPARISONS.FINGERPRINT.eq(fingerprint(repo)))
+                .and(COMPARISONS.QUANTILE_VERSION.eq(quantileVersion))
+                .and(COMPARISONS.EXPIRES_TIME.isNull().or(COMPARISONS.EXPIRES_TIME.gt(Instant.now())))
+                .fetchOne();
+        if (record == null) return Optional.empty();
+        return Optional.of(decode(record.getData()));
+    }
+
+    /**
+     * Store a comparison in the background unless its data is already outdated.
+     */
+    public static void put(
+            Repo repo,
+            CommitComparerData data,
+            String chashFirst,
+            String chashSecond,
+            JsonCommitComparison comparison) {
+        if (data.enqueuedFirst() || data.enqueuedSecond()) return;
+
+        ComparisonsRecord record = new ComparisonsRecord(
+                chashFirst,
+                chashSecond,
+                fingerprint(repo),
+                data.quantileVersion(),
+                Instant.now(),
+                data.validUntil().orElse(null),
+                encode(comparison));
+
+        repo.db()
+                .writeTransactionGrouped(ctx -> {
+                    if (generation(ctx.dsl()) != data.storeGeneration()) return;
+                    ctx.dsl().batchMerge(record).execute();
+                })
+                .exceptionally(e -> {
+                    log.warn("Failed to store comparison of {} and {}", chashFirst, chashSecond, e);
+                    return null;
+                });
+    }
+
+    /**
+     * Delete the stored comparisons involving any of the commits.
+     */
+    public static void invalidate(Configuration ctx, Collection<String> chashes) {
+        if (chashes.isEmpty()) return;
+        ctx.dsl()
+                .deleteFrom(COMPARISONS)
+                .where(COMPARISONS.CHASH_FIRST.in(chashes))
+                .or(COMPARISONS.CHASH_SECOND.in(chashes))
+                .execute();
+        increaseGeneration(ctx);
+    }
+
+    public static void invalidateAll(Configuration ctx) {
+        ctx.dsl().deleteFrom(COMPARISONS).execute();
+        increaseGeneration(ctx);
+    }
+
+    /**
+     * Mark all comparisons using the quantiles of this repo as outdated. This includes comparisons of other repos
+     * that use this repo's quantiles. Only call this when the quantiles change substantially, since it affects every
+     * stored comparison.
+     */
+    public static void increaseQuantileVersion(Configuration ctx) {
+        ctx.dsl()
+                .update(COMPARISON_VERSIONS)
+                .set(COMPARISON_VERSIONS.QUANTILE_VERSION, COMPARISON_VERSIONS.QUANTILE_VERSION.add(1))
+                .execute();
+    }
+
+    /**
+     * Delete comparisons that are old or can no longer be used.
+     */
+    public static void prune(Repo repo) {
+        Instant now = Instant.now();
+        int deleted = repo.db().writeTransactionResult(ctx -> ctx.dsl()
+                .deleteFrom(COMPARISONS)
+                .where(COMPARISONS.CREATED_TIME.lt(now.minus(Constants.COMPARISON_STORE_LIFETIME)))
+                .or(COMPARISONS.EXPIRES_TIME.lt(now))
+                .or(COMPARISONS.FINGERPRINT.ne(fingerprint(repo)))
+                .execute());
+        log.info("Deleted {} stored comparisons", deleted);
+    }
+
+    static int generation(DSLContext dsl) {
+        return dsl.selectFrom(COMPARISON_VERSIONS).fetchSingle(COMPARISON_VERSIONS.GENERATION);
+    }
+
+    static int quantileVersion(DSLContext dsl) {
+        return dsl.selectFrom(COMPARISON_VERSIONS).fetchSingle(COMPARISON_VERSIONS.QUANTILE_VERSION);
+    }
+
+    private static void increaseGeneration(Configuration ctx) {
+        ctx.dsl()
+                .update(COMPARISON_VERSIONS)
+                .set(COMPARISON_VERSIONS.GENERATION, COMPARISON_VERSIONS.GENERATION.add(1))
+                .execute();
+    }
+
+    /**
+     * A hash of everything besides the data that affects a repo's comparisons.
+     */
+    private static String fingerprint(Repo repo) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform must support SHA-256
+        }
+        digest.update((FORMAT + "\n" + repo.comparisonConfig()).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static byte[] encode(JsonCommitComparison comparison) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            MAPPER.writeValue(out, comparison);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static JsonCommitComparison decode(byte[] data) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return MAPPER.readValue(in, JsonCommitComparison.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package org.leanlang.radar.server.compare;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A pair of commits to compare, see {@link CommitComparer#compareRange}.
+ */
+public record CommitPair(@Nullable String chashFirst, String chashSecond) {}
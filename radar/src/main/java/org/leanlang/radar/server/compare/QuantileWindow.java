@@ -0,0 +1,177 @@
+package org.leanlang.radar.server.compare;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The values of a metric over the latest commits of the history, sorted by history position.
+ * <p>
+ * A metric's quantile is computed from the absolute differences between the values of neighbouring measured commits
+ * in its window. Windows are stored in the quantile_windows table, so the quantile can be updated incrementally
+ * whenever new measurements arrive instead of reading all measurements again.
+ */
+public final class QuantileWindow {
+    /**
+     * The quantile of the absolute differences that is used as the metric's quantile.
+     */
+    public static final float QUANTILE = 0.9f;
+
+    private int[] positions;
+    private float[] values;
+    private int size;
+
+    public QuantileWindow() {
+        this(new int[16], new float[16], 0);
+    }
+
+    private QuantileWindow(int[] positions, float[] values, int size) {
+        this.positions = positions;
+        this.values = values;
+        this.size = size;
+    }
+
+    public static QuantileWindow decode(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int size = buffer.getInt();
+        int[] positions = new int[Math.max(1, size)];
+        float[] values = new float[Math.max(1, size)];
+        for (int i = 0; i < size; i++) positions[i] = buffer.getInt();
+        for (int i = 0; i < size; i++) values[i] = buffer.getFloat();
+        return new QuantileWindow(positions, values, size);
+    }
+
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + size * (Integer.BYTES + Float.BYTES));
+        buffer.putInt(size);
+        for (int i = 0; i < size; i++) buffer.putInt(positions[i]);
+        for (int i = 0; i < size; i++) buffer.putFloat(values[i]);
+        return buffer.array();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add a value at a history position unless the window already has a value there. Like the measurements table, the
+     * window keeps the first value it saw for a commit. Adding values in order of increasing position is cheapest.
+     *
+     * @return whether the value was added
+     */
+    public boolean add(int position, float value) {
+        int index;
+        if (size == 0 || position > positions[size - 1]) {
+            index = size;
+        } else {
+            index = Arrays.binarySearch(positions, 0, size, position);
+            if (index >= 0) return false;
+            index = -index - 1;
+        }
+
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        System.arraycopy(positions, index, positions, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        positions[index] = position;
+        values[index] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Add all values of another window, see {@link #add(int, float)}.
+     *
+     * @return whether any value was added
+     */
+    public boolean addAll(QuantileWindow other) {
+        boolean changed = false;
+        for (int i = 0; i < other.size; i++) {
+            changed |= add(other.positions[i], other.values[i]);
+        }
+        return changed;
+    }
+
+    /**
+     * Remove all values at positions before {@code minPosition}.
+     */
+    public void removeBefore(int minPosition) {
+        int index = Arrays.binarySearch(positions, 0, size, minPosition);
+        if (index < 0) index = -index - 1;
+        if (index == 0) return;
+        System.arraycopy(positions, index, positions, 0, size - index);
+        System.arraycopy(values, index, values, 0, size - index);
+        size -= index;
+    }
+
+    /**
+     * @return the window's quantile, or NaN if there are too few values
+     */
+    public float quantile() {
+        return computeAbsDeltaQuantile(Arrays.copyOf(values, size), size, QUANTILE);
+    }
+
+    /**
+     * Compute a quantile of the absolute differences between neighbouring values. Equivalent to sorting the
+     * differences and interpolating between the two differences closest to the quantile, but uses quickselect instead,
+     * which only takes linear time. Overwrites the values.
+     *
+     * @return the quantile, or NaN if there are too few values
+     */
+    public static float computeAbsDeltaQuantile(float[] values, int size, float quantile) {
+        int deltas = Math.max(0, size - 1);
+        if (deltas < 10) return Float.NaN;
+        for (int i = 0; i < deltas; i++) {
+            values[i] = Math.abs(values[i + 1] - values[i]);
+        }
+
+        quantile = Float.max(0, Float.min(1, quantile));
+        int top = deltas - 1;
+        float x = quantile * top;
+        int index = Math.round(x);
+        if (index >= top) return select(values, deltas, top);
+
+        float weight = x - index;
+        float lower = select(values, deltas, index);
+        // After selecting, all values above the index are at least as large, so the next value is their minimum.
+        float upper = values[index + 1];
+        for (int i = index + 2; i < deltas; i++) upper = Math.min(upper, values[i]);
+        return lower * (1 - weight) + upper * weight;
+    }
+
+    /**
+     * Find the k-th smallest value and partition the values around it.
+     * Afterwards, no value before index {@code k} is larger and no value after it is smaller.
+     */
+    private static float select(float[] values, int size, int k) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo < hi) {
+            float a = values[lo];
+            float b = values[(lo + hi) >>> 1];
+            float c = values[hi];
+            float pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c)); // Median of three
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    float tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+
+            // Values up to j are at most the pivot, values from i on are at least the pivot, values between are equal
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return values[k];
+        }
+        return values[k];
+    }
+}
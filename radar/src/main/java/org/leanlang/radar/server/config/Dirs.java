@@ -25,6 +25,14 @@ public final class Dirs {
         return repoState(repo).resolve("data.db");
     }
 
+    public Path repoDbBackups(String repo) {
+        return repoState(repo).resolve("backups");
+    }
+
+    public Path repoArchive(String repo) {
+        return repoState(repo).resolve("archive");
+    }
+
     public Path repoRunLogs(String repo, String chash) {
         return repoState(repo).resolve("logs").resolve(chash);
     }
@@ -41,6 +41,14 @@ public final class ServerConfig extends Configuration {
     @JsonProperty(required = true)
     public List<ServerConfigRunner> runners;
 
+    @Valid
+    @JsonProperty
+    public List<ServerConfigPool> pools = List.of();
+
+    // Let runners take jobs with short predicted durations first when priorities are equal
+    @JsonProperty
+    public boolean preferShortJobs = false;
+
     @Valid
     @JsonProperty
     public List<ServerConfigLegalLink> legalLinks = List.of();
@@ -0,0 +1,17 @@
+package org.leanlang.radar.server.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.validation.constraints.NotEmpty;
+import java.util.List;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A group of identical runners that share their work.
+ * Bench runs can use the name of a pool instead of the name of a single runner.
+ *
+ * @param systemConfigurationId if set, only runners reporting this system configuration may take the pool's jobs
+ */
+public record ServerConfigPool(
+        @NotEmpty @JsonProperty(required = true) String name,
+        @NotEmpty @JsonProperty(required = true) List<String> runners,
+        @Nullable String systemConfigurationId) {}
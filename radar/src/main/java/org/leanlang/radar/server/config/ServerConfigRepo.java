@@ -2,6 +2,7 @@ package org.leanlang.radar.server.config;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotEmpty;
 import java.net.URI;
 import java.util.List;
@@ -27,6 +28,13 @@ public class ServerConfigRepo {
     public @NotEmpty @JsonProperty(required = true) String benchRef;
     public @Valid @NotEmpty @RepoRunNamesUnique @JsonProperty(required = true) List<ServerConfigRepoRun> benchRuns;
 
+    // Scheduling
+    // If greater than 1, only every nth new commit and the newest commit are benchmarked right away.
+    // The commits in between are only benchmarked via bisection if their neighbours differ significantly.
+    public int backlogSampleStride = 1;
+    // Relative share of jobs this repo gets while other repos sharing its runners have jobs of the same priority.
+    public @Min(1) int queueWeight = 1;
+
     // Significance
     public int significantLargeChanges = 1;
     public int significantMediumChanges = 5;
@@ -41,6 +49,15 @@ public class ServerConfigRepo {
     public boolean newMetrics = false;
     public @Nullable Pattern newMetricsOmit = null;
 
+    // Database
+    // Seconds between WAL checkpoints. If 0, checkpointing is left entirely to SQLite's auto-checkpoint.
+    public @Min(0) int dbCheckpointSeconds = 10;
+    // Number of daily DB backups to keep. If 0, no daily backups are made.
+    public @Min(0) int dbBackups = 7;
+    // Measurements of commits further than this many commits behind the latest commit in the history are moved into
+    // compressed archive files during daily maintenance. If 0, measurements are never archived.
+    public @Min(0) int dbArchiveAfterCommits = 0;
+
     // Other platforms
     public @Valid ServerConfigRepoGithub github = new ServerConfigRepoGithub();
     public @Valid ServerConfigRepoZulip zulip = new ServerConfigRepoZulip();
@@ -0,0 +1,344 @@
+package org.leanlang.radar.server.queue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import org.jspecify.annotations.Nullable;
+import org.leanlang.radar.server.config.ServerConfigRepoRun;
+import org.leanlang.radar.server.repos.Repo;
+
+/**
+ * In-memory index of all unfinished runs in the queue, grouped by target, repo and run name and sorted in queue order.
+ * A run's target is either a single runner or a pool of runners.
+ * <p>
+ * The index mirrors the queue and runs tables and must only be modified once the transaction modifying the tables has
+ * been committed, while the corresponding repo's write lock is still held. This way, the index changes in the same
+ * order as the tables do and never contains changes that were rolled back.
+ * <p>
+ * The index also holds the dispatch table: Taking a job leases it to the runner until the lease expires, and other
+ * runners skip leased jobs. Leases are renewed by the runner's status updates, so the runs of dead runners become
+ * available again once their leases expire. Leases are only kept in memory. After a restart, they are rebuilt from the
+ * runners' status updates, so no jobs are handed out until the runners had a chance to report what they are working on.
+ * <p>
+ * Jobs with the same priority are distributed across repos using weighted fair queuing, so a repo with a large backlog
+ * can't starve the other repos sharing its runners. Optionally, jobs are charged by their predicted duration instead of
+ * all costing the same, which favours short jobs.
+ * <p>
+ * Threads waiting for a job in {@link #awaitClaim(String, List, Duration, Duration)} are woken up whenever a task is
+ * added or bumped or a lease is released, and they look again whenever a lease expires.
+ */
+final class JobIndex {
+
+    /**
+     * @param repoIndex position of the repo in the config, used as tie-breaker
+     * @param runIndex position of the run in the repo's config, used as tie-breaker
+     */
+    record Job(
+            Repo repo,
+            int repoIndex,
+            String chash,
+            ServerConfigRepoRun run,
+            int runIndex,
+            int priority,
+            Instant bumped,
+            int seq) {
+
+        Job withPriority(int priority, Instant bumped, int seq) {
+            return new Job(repo, repoIndex, chash, run, runIndex, priority, bumped, seq);
+        }
+
+        RunId id() {
+            return new RunId(repo.name(), chash, run.name());
+        }
+    }
+
+    private record TaskId(String repo, String chash) {}
+
+    private record Lane(String repo, String run) {}
+
+    // High to low priority, then old to recent bump, just like Queue.getTasks()
+    private static final Comparator<Job> ORDER = Comparator.comparing(Job::priority)
+            .reversed()
+            .thenComparing(Job::bumped)
+            .thenComparing(Job::seq)
+            .thenComparing(Job::repoIndex)
+            .thenComparing(Job::chash)
+            .thenComparing(Job::runIndex);
+
+    private final Map<String, Integer> repoIndices = new HashMap<>();
+    private final RunDurations durations;
+    private final boolean preferShortJobs;
+
+    private final Map<String, Map<Lane, NavigableSet<Job>>> byTarget = new HashMap<>();
+    private final Map<TaskId, List<Job>> byTask = new HashMap<>();
+
+    // Leases by task and run name. A runner only works on one run at a time, so it holds at most one lease.
+    private final Map<TaskId, Map<String, Run.Lease>> leases = new HashMap<>();
+    private final Map<String, RunId> leaseByRunner = new HashMap<>();
+    private final Instant claimsStart;
+
+    // Weighted fair queuing state, see pickFairly()
+    private final Map<String, Double> finishTimes = new HashMap<>();
+    private double virtualTime = 0;
+
+    /**
+     * @param claimsStart no jobs are claimed before this time, so runners can renew their leases after a restart
+     */
+    JobIndex(List<Repo> repos, RunDurations durations, boolean preferShortJobs, Instant claimsStart) {
+        this.durations = durations;
+        this.preferShortJobs = preferShortJobs;
+        this.claimsStart = claimsStart;
+        for (int i = 0; i < repos.size(); i++) {
+            repoIndices.put(repos.get(i).name(), i);
+        }
+    }
+
+    private NavigableSet<Job> jobsOf(Job job) {
+        return byTarget.computeIfAbsent(job.run().runner(), it -> new HashMap<>())
+                .computeIfAbsent(new Lane(job.repo().name(), job.run().name()), it -> new TreeSet<>(ORDER));
+    }
+
+    private void addJob(Job job) {
+        jobsOf(job).add(job);
+        byTask.computeIfAbsent(new TaskId(job.repo().name(), job.chash()), it -> new ArrayList<>())
+                .add(job);
+    }
+
+    private void removeJob(Job job) {
+        jobsOf(job).remove(job);
+    }
+
+    private void removeJobs(TaskId id) {
+        List<Job> jobs = byTask.remove(id);
+        if (jobs == null) return;
+        jobs.forEach(this::removeJob);
+    }
+
+    /**
+     * Add a task to the index, replacing any previous entries for the same task.
+     *
+     * @param finishedRuns names of the task's runs that are already finished and should not be indexed
+     */
+    synchronized void putTask(
+            Repo repo, String chash, int priority, Instant bumped, int seq, Set<String> finishedRuns) {
+        // Leases are kept since the runners holding them are still working on the runs.
+        removeJobs(new TaskId(repo.name(), chash));
+
+        int repoIndex = repoIndices.getOrDefault(repo.name(), Integer.MAX_VALUE);
+        List<ServerConfigRepoRun> runs = repo.benchRuns();
+        for (int i = 0; i < runs.size(); i++) {
+            ServerConfigRepoRun run = runs.get(i);
+            if (finishedRuns.contains(run.name())) continue;
+            addJob(new Job(repo, repoIndex, chash, run, i, priority, bumped, seq));
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Move a task to a new position in the queue without changing which of its runs are unfinished.
+     */
+    synchronized void bumpTask(String repo, String chash, int priority, Instant bumped, int seq) {
+        List<Job> jobs = byTask.get(new TaskId(repo, chash));
+        if (jobs == null) return;
+
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            removeJob(job);
+            Job bumpedJob = job.withPriority(priority, bumped, seq);
+            jobsOf(bumpedJob).add(bumpedJob);
+            jobs.set(i, bumpedJob);
+        }
+
+        notifyAll();
+    }
+
+    synchronized void removeRun(String repo, String chash, String name) {
+        TaskId id = new TaskId(repo, chash);
+        List<Job> jobs = byTask.get(id);
+        if (jobs == null) return;
+
+        jobs.removeIf(job -> {
+            if (!job.run().name().equals(name)) return false;
+            removeJob(job);
+            return true;
+        });
+        if (jobs.isEmpty()) byTask.remove(id);
+
+        Map<String, Run.Lease> taskLeases = leases.get(id);
+        if (taskLeases == null) return;
+        Run.Lease lease = taskLeases.remove(name);
+        if (taskLeases.isEmpty()) leases.remove(id);
+        if (lease != null) leaseByRunner.remove(lease.runner(), new RunId(repo, chash, name));
+    }
+
+    synchronized void removeTask(String repo, String chash) {
+        TaskId id = new TaskId(repo, chash);
+        removeJobs(id);
+
+        Map<String, Run.Lease> taskLeases = leases.remove(id);
+        if (taskLeases == null) return;
+        taskLeases.forEach((name, lease) -> leaseByRunner.remove(lease.runner(), new RunId(repo, chash, name)));
+    }
+
+    private Run.@Nullable Lease lease(RunId id) {
+        Map<String, Run.Lease> taskLeases = leases.get(new TaskId(id.repo(), id.chash()));
+        return taskLeases == null ? null : taskLeases.get(id.name());
+    }
+
+    /**
+     * @return whether the runner held a lease
+     */
+    private boolean releaseLease(String runner) {
+        RunId id = leaseByRunner.remove(runner);
+        if (id == null) return false;
+
+        TaskId taskId = new TaskId(id.repo(), id.chash());
+        Map<String, Run.Lease> taskLeases = leases.get(taskId);
+        Run.Lease lease = taskLeases == null ? null : taskLeases.get(id.name());
+        if (lease == null || !lease.runner().equals(runner)) return false;
+        taskLeases.remove(id.name());
+        if (taskLeases.isEmpty()) leases.remove(taskId);
+        return true;
+    }
+
+    private void putLease(RunId id, Run.Lease lease) {
+        releaseLease(lease.runner());
+        Run.Lease previous = leases.computeIfAbsent(new TaskId(id.repo(), id.chash()), it -> new HashMap<>())
+                .put(id.name(), lease);
+        if (previous != null) leaseByRunner.remove(previous.runner(), id);
+        leaseByRunner.put(lease.runner(), id);
+    }
+
+    private Optional<Job> firstUnleased(NavigableSet<Job> jobs, Instant now) {
+        for (Job job : jobs) {
+            Run.Lease lease = lease(job.id());
+            if (lease != null && lease.expires().isAfter(now)) continue;
+            return Optional.of(job);
+        }
+        return Optional.empty();
+    }
+
+    private double startTime(Repo repo) {
+        return Math.max(virtualTime, finishTimes.getOrDefault(repo.name(), 0.0));
+    }
+
+    private double cost(Job job) {
+        if (!preferShortJobs) return 1;
+        return durations.predict(job.repo().name(), job.run().name()).toMillis() / 1000.0;
+    }
+
+    private double finishTime(Job job) {
+        return startTime(job.repo()) + cost(job) / job.repo().queueWeight();
+    }
+
+    /**
+     * Pick one of the jobs with the highest priority based on weighted fair queuing.
+     * <p>
+     * Every repo has a virtual finish time that advances by {@code cost / weight} for every job taken from it, and the
+     * repo with the earliest virtual finish time is served first. A repo's virtual start time never lags behind the
+     * global virtual time, so a repo can't save up credit while it has no jobs and then starve all other repos.
+     */
+    private Job pickFairly(List<Job> candidates) {
+        int priority = candidates.stream().mapToInt(Job::priority).max().orElseThrow();
+        Job job = candidates.stream()
+                .filter(it -> it.priority() == priority)
+                .min(Comparator.comparingDouble(this::finishTime).thenComparing(ORDER))
+                .orElseThrow();
+
+        virtualTime = startTime(job.repo());
+        finishTimes.put(job.repo().name(), finishTime(job));
+        return job;
+    }
+
+    /**
+     * Lease the next job across all of a runner's targets that isn't leased by another runner. Since a runner only
+     * works on one job at a time, the lease the runner held previously is released. Until {@code claimsStart}, no jobs
+     * are leased at all.
+     *
+     * @param targets the runner's own name and the names of all pools it may take jobs from
+     */
+    synchronized Optional<Job> claim(String runner, List<String> targets, Instant now, Duration leaseDuration) {
+        // Other runners may be waiting for the released job
+        if (releaseLease(runner)) notifyAll();
+        if (now.isBefore(claimsStart)) return Optional.empty();
+
+        // The first unleased job of every lane across all targets.
+        // Unless short jobs are preferred, all jobs of a repo cost the same, so the fairness logic picks the repo's
+        // first job in queue order.
+        List<Job> candidates = new ArrayList<>();
+        for (String target : targets) {
+            for (NavigableSet<Job> jobs : byTarget.getOrDefault(target, Map.of()).values()) {
+                firstUnleased(jobs, now).ifPresent(candidates::add);
+            }
+        }
+        if (candidates.isEmpty()) return Optional.empty();
+
+        Job job = pickFairly(candidates);
+        putLease(job.id(), new Run.Lease(runner, now.plus(leaseDuration)));
+        return Optional.of(job);
+    }
+
+    /**
+     * Like {@link #claim(String, List, Instant, Duration)}, but if there is no job, wait up to {@code timeout} for one
+     * to become available.
+     */
+    synchronized Optional<Job> awaitClaim(
+            String runner, List<String> targets, Duration leaseDuration, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            Optional<Job> job = claim(runner, targets, Instant.now(), leaseDuration);
+            if (job.isPresent()) return job;
+
+            long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+            if (remainingMillis <= 0) return Optional.empty();
+            // Nobody is notified when a lease expires or claiming starts, so wake up in time to take the job
+            wait(Math.min(remainingMillis, millisUntilNextChange(Instant.now())));
+        }
+    }
+
+    private long millisUntilNextChange(Instant now) {
+        if (now.isBefore(claimsStart)) return now.until(claimsStart).toMillis() + 1;
+        return leases.values().stream()
+                .flatMap(it -> it.values().stream())
+                .map(Run.Lease::expires)
+                .filter(it -> it.isAfter(now))
+                .min(Comparator.naturalOrder())
+                .map(it -> now.until(it).toMillis() + 1)
+                .orElse(Long.MAX_VALUE);
+    }
+
+    /**
+     * Extend or create a runner's lease on a run, as long as the run is still in the index.
+     */
+    synchronized void renewLease(RunId id, String runner, Instant expires) {
+        List<Job> jobs = byTask.get(new TaskId(id.repo(), id.chash()));
+        if (jobs == null || jobs.stream().noneMatch(it -> it.run().name().equals(id.name()))) return;
+        putLease(id, new Run.Lease(runner, expires));
+    }
+
+    synchronized boolean hasLease(String repo, String chash, Instant now) {
+        Map<String, Run.Lease> taskLeases = leases.get(new TaskId(repo, chash));
+        return taskLeases != null
+                && taskLeases.values().stream().anyMatch(it -> it.expires().isAfter(now));
+    }
+
+    /**
+     * @return all leases that haven't expired yet
+     */
+    synchronized Map<RunId, Run.Lease> leases(Instant now) {
+        Map<RunId, Run.Lease> result = new HashMap<>();
+        leases.forEach((task, taskLeases) -> taskLeases.forEach((name, lease) -> {
+            if (lease.expires().isAfter(now)) result.put(new RunId(task.repo(), task.chash(), name), lease);
+        }));
+        return result;
+    }
+}
@@ -10,6 +10,7 @@ public record JsonRun(
         @JsonProperty(required = true) String name,
         @JsonProperty(required = true) String script,
         @JsonProperty(required = true) String runner,
+        Optional<Lease> lease,
         Optional<Active> active,
         Optional<Finished> finished)
         implements Comparable<JsonRun> {
@@ -22,6 +23,9 @@ public record JsonRun(
         return comparator.compare(this, o);
     }
 
+    public record Lease(
+            @JsonProperty(required = true) String runner, @JsonProperty(required = true) Instant expires) {}
+
     public record Active(@JsonProperty(required = true) Instant startTime) {}
 
     public record Finished(
@@ -34,6 +38,7 @@ public record JsonRun(
                 run.name(),
                 run.script(),
                 run.runner(),
+                run.lease().map(it -> new Lease(it.runner(), it.expires())),
                 run.active().map(it -> new Active(it.startTime())),
                 run.finished().map(it -> new Finished(it.startTime(), it.endTime(), it.exitCode())));
     }
@@ -44,6 +49,7 @@ public record JsonRun(
                 record.getScript(),
                 record.getRunner(),
                 Optional.empty(),
+                Optional.empty(),
                 Optional.of(new Finished(record.getStartTime(), record.getEndTime(), record.getExitCode())));
     }
 }
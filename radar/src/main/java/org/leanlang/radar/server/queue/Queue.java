@@ -1,44 +1,115 @@
 package org.leanlang.radar.server.queue;
 
+import static org.leanlang.radar.codegen.jooq.Tables.ARCHIVED_COMMITS;
 import static org.leanlang.radar.codegen.jooq.Tables.HISTORY;
 import static org.leanlang.radar.codegen.jooq.Tables.MEASUREMENTS;
 import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
+import static org.leanlang.radar.codegen.jooq.Tables.QUANTILE_PENDING;
 import static org.leanlang.radar.codegen.jooq.Tables.QUEUE;
+import static org.leanlang.radar.codegen.jooq.Tables.QUEUE_DEFERRED;
 import static org.leanlang.radar.codegen.jooq.Tables.QUEUE_SEEN;
 import static org.leanlang.radar.codegen.jooq.Tables.RUNS;
 import static org.leanlang.radar.codegen.jooq.Tables.SIGNIFICANCE_FEED;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import org.jooq.Configuration;
+import org.jooq.Query;
 import org.jooq.Record1;
+import org.jooq.Record2;
+import org.jooq.impl.DSL;
+import org.jspecify.annotations.Nullable;
+import org.leanlang.radar.Constants;
 import org.leanlang.radar.codegen.jooq.Tables;
 import org.leanlang.radar.codegen.jooq.tables.History;
-import org.leanlang.radar.codegen.jooq.tables.records.MetricsRecord;
 import org.leanlang.radar.codegen.jooq.tables.records.QueueRecord;
 import org.leanlang.radar.codegen.jooq.tables.records.RunsRecord;
 import org.leanlang.radar.runner.supervisor.JsonJob;
+import org.leanlang.radar.runner.supervisor.JsonOutputLine;
 import org.leanlang.radar.runner.supervisor.JsonRunResult;
 import org.leanlang.radar.runner.supervisor.JsonRunResultEntry;
+import org.leanlang.radar.server.compare.CommitComparisonStore;
 import org.leanlang.radar.server.config.ServerConfigRepoRun;
+import org.leanlang.radar.server.repos.CommitIds;
 import org.leanlang.radar.server.repos.Repo;
 import org.leanlang.radar.server.repos.Repos;
+import org.leanlang.radar.server.repos.RunEntriesFile;
+import org.leanlang.radar.server.repos.RunLogWriter;
 import org.leanlang.radar.server.runners.Runners;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public record Queue(Repos repos, Runners runners) {
+public final class Queue {
     private static final Logger log = LoggerFactory.getLogger(Queue.class);
 
-    private record RunId(String repo, String chash, String name) {}
+    // Rows per statement, keeping the amount of SQL variables per statement well below SQLite's limit
+    private static final int BATCH_SIZE = 1000;
+    // How many recent runs per repo to load into the run duration predictor on startup
+    private static final int RUN_DURATION_HISTORY = 1000;
+
+    private final Repos repos;
+    private final Runners runners;
+    private final RunDurations runDurations;
+    private final JobIndex jobIndex;
+
+    /**
+     * @param preferShortJobs whether runners should take jobs with short predicted durations first
+     */
+    public Queue(Repos repos, Runners runners, boolean preferShortJobs) {
+        this.repos = repos;
+        this.runners = runners;
+        this.runDurations = new RunDurations();
+        // Connected runners report their active runs within this time, which renews their leases
+        this.jobIndex = new JobIndex(
+                repos.repos(), runDurations, preferShortJobs, Instant.now().plus(Constants.RUNNER_CONNECTED_TIME));
+
+        for (Repo repo : repos.repos()) {
+            indexRepo(repo);
+        }
+    }
+
+    private void indexRepo(Repo repo) {
+        log.info("Indexing queue for repo {}", repo.name());
+        repo.db().readTransaction(ctx -> {
+            List<RunsRecord> recentRuns = ctx.dsl()
+                    .selectFrom(RUNS)
+                    .orderBy(RUNS.START_TIME.desc())
+                    .limit(RUN_DURATION_HISTORY)
+                    .fetch();
+            for (RunsRecord run : recentRuns.reversed()) {
+                runDurations.add(repo.name(), run.getName(), run.getStartTime().until(run.getEndTime()));
+            }
+
+            Map<String, Set<String>> finishedRuns = ctx
+                    .dsl()
+                    .select(RUNS.CHASH, RUNS.NAME)
+                    .from(QUEUE.join(RUNS).on(RUNS.CHASH.eq(QUEUE.CHASH)))
+                    .stream()
+                    .collect(Collectors.groupingBy(
+                            Record2::value1, Collectors.mapping(Record2::value2, Collectors.toSet())));
+
+            for (QueueRecord task : ctx.dsl().selectFrom(QUEUE).fetch()) {
+                jobIndex.putTask(
+                        repo,
+                        task.getChash(),
+                        task.getPriority(),
+                        task.getBumpedTime(),
+                        task.getSeq(),
+                        finishedRuns.getOrDefault(task.getChash(), Set.of()));
+            }
+        });
+    }
 
     private Map<RunId, Run.Active> getActiveRuns() {
         return runners.runners().stream()
@@ -79,6 +150,7 @@ public record Queue(Repos repos, Runners runners) {
             String repo,
             String chash,
             ServerConfigRepoRun run,
+            Map<RunId, Run.Lease> leases,
             Map<RunId, Run.Active> activeRuns,
             Map<RunId, Run.Finished> finishedRuns) {
         RunId id = new RunId(repo, chash, run.name());
@@ -86,24 +158,31 @@ public record Queue(Repos repos, Runners runners) {
                 run.name(),
                 run.script(),
                 run.runner(),
+                Optional.ofNullable(leases.get(id)),
                 Optional.ofNullable(activeRuns.get(id)),
                 Optional.ofNullable(finishedRuns.get(id)));
     }
 
     private static Task buildTask(
-            Repo repo, QueueRecord task, Map<RunId, Run.Active> activeRuns, Map<RunId, Run.Finished> finishedRuns) {
+            Repo repo,
+            QueueRecord task,
+            Map<RunId, Run.Lease> leases,
+            Map<RunId, Run.Active> activeRuns,
+            Map<RunId, Run.Finished> finishedRuns) {
         return new Task(
                 repo,
                 task.getChash(),
                 task.getQueuedTime(),
                 task.getBumpedTime(),
+                task.getSeq(),
                 task.getPriority(),
                 repo.benchRuns().stream()
-                        .map(run -> buildRun(repo.name(), task.getChash(), run, activeRuns, finishedRuns))
+                        .map(run -> buildRun(repo.name(), task.getChash(), run, leases, activeRuns, finishedRuns))
                         .toList());
     }
 
     public List<Task> getTasks() {
+        Map<RunId, Run.Lease> leases = jobIndex.leases(Instant.now());
         Map<RunId, Run.Active> activeRuns = getActiveRuns();
 
         List<Task> result = new ArrayList<>();
@@ -111,35 +190,109 @@ public record Queue(Repos repos, Runners runners) {
             result.addAll(repo.db().readTransactionResult(ctx -> {
                 Map<RunId, Run.Finished> finishedRuns = getFinishedRunsForRepo(repo, ctx);
                 return ctx.dsl().selectFrom(Tables.QUEUE).stream()
-                        .map(task -> Queue.buildTask(repo, task, activeRuns, finishedRuns))
+                        .map(task -> Queue.buildTask(repo, task, leases, activeRuns, finishedRuns))
                         .toList();
             }));
         }
 
         // High to low priority, then old to recent bump
-        result.sort(Comparator.comparing(Task::priority).reversed().thenComparing(Task::bumped));
+        result.sort(Comparator.comparing(Task::priority)
+                .reversed()
+                .thenComparing(Task::bumped)
+                .thenComparing(Task::seq));
+
+        return result;
+    }
+
+    /**
+     * Roughly estimate when each task will be finished, assuming that tasks are worked on in the given order and that
+     * runs take as long as the run duration predictor says.
+     *
+     * @return the estimates, in the same order as the tasks
+     */
+    public List<Instant> estimateCompletion(List<Task> tasks) {
+        Instant now = Instant.now();
+
+        // When each target will have worked through all runs assigned to it so far.
+        // The runners of a pool share its runs, so a pool gets through them proportionally faster.
+        Map<String, Instant> busyUntil = new HashMap<>();
+
+        // Runs that are already running come first, no matter where in the queue they are
+        for (Task task : tasks) {
+            for (Run run : task.runs()) {
+                if (run.finished().isPresent() || run.active().isEmpty()) continue;
+                Duration elapsed = run.active().get().startTime().until(now);
+                Duration remaining = runDurations.predict(task.repo().name(), run.name()).minus(elapsed);
+                if (remaining.isNegative()) remaining = Duration.ZERO;
+                addWork(busyUntil, now, run.runner(), remaining);
+            }
+        }
 
+        List<Instant> result = new ArrayList<>();
+        for (Task task : tasks) {
+            Instant eta = now;
+            for (Run run : task.runs()) {
+                if (run.finished().isPresent()) continue;
+                if (run.active().isEmpty()) {
+                    Duration predicted = runDurations.predict(task.repo().name(), run.name());
+                    addWork(busyUntil, now, run.runner(), predicted);
+                }
+                Instant runEta = busyUntil.getOrDefault(run.runner(), now);
+                if (runEta.isAfter(eta)) eta = runEta;
+            }
+            result.add(eta);
+        }
         return result;
     }
 
+    private void addWork(Map<String, Instant> busyUntil, Instant now, String target, Duration work) {
+        Duration share = work.dividedBy(runners.capacity(target));
+        busyUntil.merge(target, now.plus(share), (until, it) -> until.plus(share));
+    }
+
     public Optional<Task> getTask(String repoName, String chash) {
         Repo repo = repos.repo(repoName);
         return repo.db().readTransactionResult(ctx -> {
-            QueueRecord record = repo.db()
-                    .read()
-                    .dsl()
-                    .selectFrom(QUEUE)
-                    .where(QUEUE.CHASH.eq(chash))
-                    .fetchOne();
+            QueueRecord record =
+                    ctx.dsl().selectFrom(QUEUE).where(QUEUE.CHASH.eq(chash)).fetchOne();
             if (record == null) return Optional.empty();
 
+            Map<RunId, Run.Lease> leases = jobIndex.leases(Instant.now());
             Map<RunId, Run.Active> activeRuns = getActiveRuns();
             Map<RunId, Run.Finished> finishedRuns = getFinishedRunsForRepo(repo, ctx);
-            return Optional.of(buildTask(repo, record, activeRuns, finishedRuns));
+            return Optional.of(buildTask(repo, record, leases, activeRuns, finishedRuns));
         });
     }
 
-    private static void enqueueBump(Configuration ctx, QueueRecord inQueue, int priority) {
+    @FunctionalInterface
+    private interface IndexedTransaction<T> {
+        T run(Configuration ctx, List<Runnable> indexChanges) throws Throwable;
+    }
+
+    /**
+     * Run a write transaction that changes the queue or runs tables. Instead of changing the job index directly, the
+     * transaction adds its index changes to {@code indexChanges}. They are only applied once the transaction has been
+     * committed, so the index never contains changes that were rolled back, and runners waiting for a job are only
+     * woken up once the job is visible in the DB.
+     */
+    private <T> T writeTransactionIndexed(Repo repo, IndexedTransaction<T> transaction) {
+        List<Runnable> indexChanges = new ArrayList<>();
+        return repo.db()
+                .writeTransactionResult(
+                        ctx -> transaction.run(ctx, indexChanges), () -> indexChanges.forEach(Runnable::run));
+    }
+
+    /**
+     * The next sequence number for queue entries. Among entries bumped at the same time, entries with lower sequence
+     * numbers come first. This way, commits enqueued together in a single transaction keep their order.
+     */
+    private static int nextSeq(Configuration ctx) {
+        Integer max = ctx.dsl().select(DSL.max(QUEUE.SEQ)).from(QUEUE).fetchOne(0, Integer.class);
+        return max == null ? 0 : max + 1;
+    }
+
+    private void enqueueBump(
+            Configuration ctx, Repo repo, QueueRecord inQueue, int priority, List<Runnable> indexChanges) {
         // Bumping the position of higher-priority queue entries could lead to runs being run earlier than "authorized".
         // Bumping same-priority commits would move them to the back of the queue, which doesn't seem desirable.
         // Thus, bumping should only happen once when the priority increases.
@@ -148,18 +301,26 @@ public record Queue(Repos repos, Runners runners) {
         // Bump as if we had freshly inserted it into the queue
         inQueue.setPriority(priority);
         inQueue.setBumpedTime(Instant.now());
+        inQueue.setSeq(nextSeq(ctx));
         ctx.dsl().batchUpdate(inQueue).execute();
+        Instant bumped = inQueue.getBumpedTime();
+        int seq = inQueue.getSeq();
+        indexChanges.add(() -> jobIndex.bumpTask(repo.name(), inQueue.getChash(), priority, bumped, seq));
     }
 
-    private static void enqueueInsert(String chash, int priority, Configuration ctx) {
+    private void enqueueInsert(Configuration ctx, Repo repo, String chash, int priority, List<Runnable> indexChanges) {
         Instant now = Instant.now();
-        QueueRecord record = new QueueRecord(chash, now, now, priority);
+        int seq = nextSeq(ctx);
+        QueueRecord record = new QueueRecord(chash, now, now, priority, seq);
         ctx.dsl().batchInsert(record).execute();
         ctx.dsl()
                 .insertInto(QUEUE_SEEN, QUEUE_SEEN.CHASH)
                 .values(chash)
                 .onDuplicateKeyIgnore()
                 .execute();
+        ctx.dsl().deleteFrom(QUEUE_DEFERRED).where(QUEUE_DEFERRED.CHASH.eq(chash)).execute();
+        CommitComparisonStore.invalidate(ctx, List.of(chash));
+        indexChanges.add(() -> jobIndex.putTask(repo, chash, priority, now, seq, Set.of()));
     }
 
     /**
@@ -174,11 +335,11 @@ public record Queue(Repos repos, Runners runners) {
         log.info("Enqueueing commit {} for repo {} (soft)", chash, repoName);
         Repo repo = repos.repo(repoName);
 
-        return repo.db().writeTransactionResult(ctx -> {
+        return writeTransactionIndexed(repo, (ctx, indexChanges) -> {
             QueueRecord inQueue =
                     ctx.dsl().selectFrom(QUEUE).where(QUEUE.CHASH.eq(chash)).fetchOne();
             if (inQueue != null) {
-                enqueueBump(ctx, inQueue, priority);
+                enqueueBump(ctx, repo, inQueue, priority, indexChanges);
                 return true;
             }
 
@@ -193,11 +354,138 @@ public record Queue(Repos repos, Runners runners) {
 
             // Insert into queue anew.
             // No need to delete results since there aren't any.
-            enqueueInsert(chash, priority, ctx);
+            enqueueInsert(ctx, repo, chash, priority, indexChanges);
             return true;
         });
     }
 
+    /**
+     * Like {@link #enqueueSoft(String, String, int)}, but for many commits at once, using a single transaction.
+     * Commits are enqueued in the order they are given in,
+     * meaning that with equal priority, earlier commits will be run first.
+     *
+     * @return the commits that were newly inserted into the queue, in the order they were given in.
+     */
+    public List<String> enqueueSoftAll(String repoName, List<String> chashes, int priority) {
+        log.info("Enqueueing {} commits for repo {} (soft)", chashes.size(), repoName);
+        Repo repo = repos.repo(repoName);
+
+        return writeTransactionIndexed(repo, (ctx, indexChanges) -> {
+            List<String> inserted = new ArrayList<>();
+            // All commits get the same time and consecutive sequence numbers, so they keep their relative order
+            Instant now = Instant.now();
+            int seq = nextSeq(ctx);
+
+            for (List<String> batch : batches(chashes)) {
+                Map<String, QueueRecord> inQueue = ctx.dsl().selectFrom(QUEUE).where(QUEUE.CHASH.in(batch)).stream()
+                        .collect(Collectors.toMap(QueueRecord::getChash, it -> it));
+                Set<String> runsExist = ctx.dsl()
+                        .selectDistinct(RUNS.CHASH)
+                        .from(RUNS)
+                        .where(RUNS.CHASH.in(batch))
+                        .fetchSet(RUNS.CHASH);
+
+                // Bump existing entries, see enqueueBump for the reasoning
+                List<String> toBump = batch.stream()
+                        .filter(it -> inQueue.containsKey(it) && inQueue.get(it).getPriority() < priority)
+                        .distinct()
+                        .toList();
+                if (!toBump.isEmpty()) {
+                    List<Query> bumps = new ArrayList<>();
+                    for (String chash : toBump) {
+                        int bumpSeq = seq++;
+                        bumps.add(ctx.dsl()
+                                .update(QUEUE)
+                                .set(QUEUE.PRIORITY, priority)
+                                .set(QUEUE.BUMPED_TIME, now)
+                                .set(QUEUE.SEQ, bumpSeq)
+                                .where(QUEUE.CHASH.eq(chash)));
+                        indexChanges.add(() -> jobIndex.bumpTask(repo.name(), chash, priority, now, bumpSeq));
+                    }
+                    ctx.dsl().batch(bumps).execute();
+                }
+
+                List<String> toInsert = batch.stream()
+                        .filter(it -> !inQueue.containsKey(it) && !runsExist.contains(it))
+                        .distinct()
+                        .toList();
+                if (toInsert.isEmpty()) continue;
+
+                var insertQueue = ctx.dsl()
+                        .insertInto(
+                                QUEUE, QUEUE.CHASH, QUEUE.QUEUED_TIME, QUEUE.BUMPED_TIME, QUEUE.PRIORITY, QUEUE.SEQ);
+                var insertQueueSeen = ctx.dsl().insertInto(QUEUE_SEEN, QUEUE_SEEN.CHASH);
+                for (String chash : toInsert) {
+                    int insertSeq = seq++;
+                    insertQueue = insertQueue.values(chash, now, now, priority, insertSeq);
+                    insertQueueSeen = insertQueueSeen.values(chash);
+                    indexChanges.add(() -> jobIndex.putTask(repo, chash, priority, now, insertSeq, Set.of()));
+                    inserted.add(chash);
+                }
+                insertQueue.execute();
+                insertQueueSeen.onDuplicateKeyIgnore().execute();
+                ctx.dsl().deleteFrom(QUEUE_DEFERRED).where(QUEUE_DEFERRED.CHASH.in(toInsert)).execute();
+                CommitComparisonStore.invalidate(ctx, toInsert);
+            }
+
+            return inserted;
+        });
+    }
+
+    /**
+     * Mark commits as deferred instead of benchmarking them right away. Deferred commits are only enqueued if
+     * bisection decides they're worth benchmarking. Enqueueing a deferred commit by any other means also un-defers it.
+     * <p>
+     * Commits that are already in the queue are only deferred if they were enqueued as new commits and no runner has
+     * started working on them yet. Commits that already have runs are never deferred.
+     *
+     * @return the commits that were deferred
+     */
+    public List<String> deferAll(String repoName, List<String> chashes) {
+        Repo repo = repos.repo(repoName);
+        Instant now = Instant.now();
+
+        return writeTransactionIndexed(repo, (ctx, indexChanges) -> {
+            List<String> deferred = new ArrayList<>();
+
+            for (List<String> batch : batches(chashes)) {
+                Map<String, QueueRecord> inQueue = ctx.dsl().selectFrom(QUEUE).where(QUEUE.CHASH.in(batch)).stream()
+                        .collect(Collectors.toMap(QueueRecord::getChash, it -> it));
+                Set<String> runsExist = ctx.dsl()
+                        .selectDistinct(RUNS.CHASH)
+                        .from(RUNS)
+                        .where(RUNS.CHASH.in(batch))
+                        .fetchSet(RUNS.CHASH);
+
+                List<String> toDefer = batch.stream()
+                        .filter(it -> !runsExist.contains(it))
+                        .filter(it -> {
+                            QueueRecord task = inQueue.get(it);
+                            if (task == null) return true;
+                            return task.getPriority() <= Constants.PRIORITY_NEW_COMMIT
+                                    && !jobIndex.hasLease(repo.name(), it, now);
+                        })
+                        .distinct()
+                        .toList();
+                if (toDefer.isEmpty()) continue;
+
+                ctx.dsl().deleteFrom(QUEUE).where(QUEUE.CHASH.in(toDefer)).execute();
+                var insertQueueSeen = ctx.dsl().insertInto(QUEUE_SEEN, QUEUE_SEEN.CHASH);
+                var insertQueueDeferred = ctx.dsl().insertInto(QUEUE_DEFERRED, QUEUE_DEFERRED.CHASH);
+                for (String chash : toDefer) {
+                    insertQueueSeen = insertQueueSeen.values(chash);
+                    insertQueueDeferred = insertQueueDeferred.values(chash);
+                    if (inQueue.containsKey(chash)) indexChanges.add(() -> jobIndex.removeTask(repo.name(), chash));
+                    deferred.add(chash);
+                }
+                insertQueueSeen.onDuplicateKeyIgnore().execute();
+                insertQueueDeferred.onDuplicateKeyIgnore().execute();
+            }
+
+            return deferred;
+        });
+    }
+
     /**
      * Add a commit to the queue, deleting all existing results
      * and bumping its position and priority if appropriate.
@@ -206,22 +494,26 @@ public record Queue(Repos repos, Runners runners) {
         log.info("Enqueueing commit {} for repo {} (hard)", chash, repoName);
         Repo repo = repos.repo(repoName);
 
-        boolean added = repo.db().writeTransactionResult(ctx -> {
+        boolean added = writeTransactionIndexed(repo, (ctx, indexChanges) -> {
             QueueRecord inQueue =
                     ctx.dsl().selectFrom(QUEUE).where(QUEUE.CHASH.eq(chash)).fetchOne();
             if (inQueue != null) {
-                enqueueBump(ctx, inQueue, priority);
+                enqueueBump(ctx, repo, inQueue, priority, indexChanges);
                 return false;
             }
 
             // Insert into queue anew.
-            enqueueInsert(chash, priority, ctx);
+            enqueueInsert(ctx, repo, chash, priority, indexChanges);
 
             // Existing data must be removed because new data will be added incrementally to the commit.
             ctx.dsl().deleteFrom(RUNS).where(RUNS.CHASH.eq(chash)).execute();
             ctx.dsl()
                     .deleteFrom(MEASUREMENTS)
-                    .where(MEASUREMENTS.CHASH.eq(chash))
+                    .where(MEASUREMENTS.COMMIT_ID.eq(CommitIds.of(chash)))
+                    .execute();
+            ctx.dsl()
+                    .deleteFrom(ARCHIVED_COMMITS)
+                    .where(ARCHIVED_COMMITS.CHASH.eq(chash))
                     .execute();
 
             return true;
@@ -249,8 +541,8 @@ public record Queue(Repos repos, Runners runners) {
         return record != null;
     }
 
-    private JsonJob makeJob(Task task, Run run) throws IOException {
-        Repo repo = task.repo();
+    private static JsonJob makeJob(JobIndex.Job job) throws IOException {
+        Repo repo = job.repo();
 
         String benchChash = repo.gitBench().resolveRef(repo.benchRef()).name();
 
@@ -258,89 +550,203 @@ public record Queue(Repos repos, Runners runners) {
                 repo.name(),
                 repo.source().gitUrl(),
                 repo.subdir(),
-                task.chash(),
+                job.chash(),
                 repo.benchSource().gitUrl(),
                 benchChash,
-                run.name(),
-                run.script());
+                job.run().name(),
+                job.run().script());
     }
 
-    public Optional<JsonJob> takeJob(String runner) throws IOException {
-        for (Task task : getTasks()) {
-            for (Run run : task.runs()) {
-                if (run.finished().isPresent()) continue;
-                if (!run.runner().equals(runner)) continue;
-                return Optional.of(makeJob(task, run));
+    /**
+     * Lease the highest-priority job the runner is eligible for, either because the job targets the runner directly or
+     * because it targets one of the runner's pools. Other runners won't be given the job until the lease expires.
+     *
+     * @param systemConfigurationId the system configuration the runner reports, used to check pool eligibility
+     * @see Constants#QUEUE_LEASE_DURATION
+     */
+    public Optional<JsonJob> takeJob(String runner, Optional<String> systemConfigurationId) throws IOException {
+        List<String> targets = runners.targets(runner, systemConfigurationId);
+        Optional<JobIndex.Job> job = jobIndex.claim(runner, targets, Instant.now(), Constants.QUEUE_LEASE_DURATION);
+        if (job.isEmpty()) return Optional.empty();
+        return Optional.of(makeJob(job.get()));
+    }
+
+    /**
+     * Like {@link #takeJob(String, Optional)}, but if there is no job, wait up to {@code timeout} for one to be
+     * enqueued.
+     */
+    public Optional<JsonJob> takeJobOrWait(String runner, Optional<String> systemConfigurationId, Duration timeout)
+            throws IOException, InterruptedException {
+        List<String> targets = runners.targets(runner, systemConfigurationId);
+        Optional<JobIndex.Job> job = jobIndex.awaitClaim(runner, targets, Constants.QUEUE_LEASE_DURATION, timeout);
+        if (job.isEmpty()) return Optional.empty();
+        return Optional.of(makeJob(job.get()));
+    }
+
+    /**
+     * Called whenever a runner reports working on a job, keeping the job leased to the runner.
+     */
+    public void renewLease(String runner, JsonJob job) {
+        RunId id = new RunId(job.repo(), job.chash(), job.name());
+        jobIndex.renewLease(id, runner, Instant.now().plus(Constants.QUEUE_LEASE_DURATION));
+    }
+
+    public void finishJob(String repoName, String runnerName, JsonRunResult runResult) throws IOException {
+        Repo repo = repos.repo(repoName);
+        try (RunLogWriter runLog = repo.writeRunLog(runResult.chash(), runResult.name());
+                RunEntriesFile entries = repo.writeRunEntries(runResult.chash(), runResult.name())) {
+            for (JsonOutputLine line : runResult.lines()) {
+                runLog.write(line);
             }
+            entries.addAll(runResult.entries());
+            finishJob(repoName, runnerName, runResult, runLog, entries);
         }
-        return Optional.empty();
     }
 
-    public void finishJob(String repoName, String runnerName, JsonRunResult runResult) throws IOException {
+    /**
+     * Like {@link #finishJob(String, String, JsonRunResult)}, but the run's log has already been written to
+     * {@code runLog} and its entries to {@code entries} instead of being part of {@code runResult}. The entries are
+     * added to the DB batch by batch, so they never have to be in memory all at once. The log is committed once the
+     * run is in the DB.
+     */
+    public void finishJob(
+            String repoName, String runnerName, JsonRunResult runResult, RunLogWriter runLog, RunEntriesFile entries)
+            throws IOException {
         // Intentionally blindly trusting the runner's data.
         // It might be from an older config version.
 
         Repo repo = repos.repo(repoName);
+        Instant start = Instant.now();
+
+        try {
+            writeTransactionIndexed(repo, (ctx, indexChanges) -> {
+                finishJobInTransaction(ctx, repo, runnerName, runResult, entries, indexChanges);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // The metric cache may contain metrics that were added by the rolled back transaction.
+            repo.metricCache().invalidate();
+            throw e;
+        }
+        runDurations.add(repo.name(), runResult.name(), runResult.startTime().until(runResult.endTime()));
+
+        Duration total = start.until(Instant.now());
+        int n = entries.size();
+        long microsPerMeasurement = n == 0 ? 0 : total.toNanos() / 1000 / n;
+        log.debug(
+                "Added {} measurements in {} ms, on average {} μs/measurement",
+                n,
+                total.toMillis(),
+                microsPerMeasurement);
+
+        runLog.commit();
+    }
 
-        repo.db().writeTransaction(ctx -> {
-            Set<String> runs = ctx.dsl().select(RUNS.NAME).from(RUNS).where(RUNS.CHASH.eq(runResult.chash())).stream()
-                    .map(Record1::value1)
-                    .collect(Collectors.toCollection(HashSet::new));
-
-            // Adding run data on top of an existing run with the same name is not a good idea.
-            if (runs.contains(runResult.name())) return;
+    private void finishJobInTransaction(
+            Configuration ctx,
+            Repo repo,
+            String runnerName,
+            JsonRunResult runResult,
+            RunEntriesFile entries,
+            List<Runnable> indexChanges)
+            throws IOException {
+        Set<String> runs = ctx.dsl().select(RUNS.NAME).from(RUNS).where(RUNS.CHASH.eq(runResult.chash())).stream()
+                .map(Record1::value1)
+                .collect(Collectors.toCollection(HashSet::new));
+
+        // Adding run data on top of an existing run with the same name is not a good idea.
+        if (runs.contains(runResult.name())) return;
+
+        // Add run data to db
+        CommitComparisonStore.invalidate(ctx, List.of(runResult.chash()));
+        addRun(ctx, runnerName, runResult);
+        int commitId = CommitIds.intern(ctx, runResult.chash());
+        entries.forEachBatch(BATCH_SIZE, batch -> {
+            updateMetrics(ctx, repo, batch);
+            addMeasurements(ctx, repo, runnerName, commitId, batch);
+        });
+        ctx.dsl()
+                .insertInto(QUANTILE_PENDING, QUANTILE_PENDING.CHASH, QUANTILE_PENDING.NAME)
+                .values(runResult.chash(), runResult.name())
+                .onDuplicateKeyIgnore()
+                .execute();
+        runs.add(runResult.name());
+        indexChanges.add(() -> jobIndex.removeRun(repo.name(), runResult.chash(), runResult.name()));
 
-            // Add run data to db
-            updateMetrics(ctx, runResult);
-            addRun(ctx, runnerName, runResult);
-            addMeasurements(ctx, runnerName, runResult);
-            runs.add(runResult.name());
+        // Remove task from queue if all its runs are finished
+        boolean allRunsFinished = repo.benchRuns().stream().allMatch(it -> runs.contains(it.name()));
+        if (!allRunsFinished) return;
+        ctx.dsl().deleteFrom(QUEUE).where(QUEUE.CHASH.eq(runResult.chash())).execute();
+        indexChanges.add(() -> jobIndex.removeTask(repo.name(), runResult.chash()));
 
-            // Remove task from queue if all its runs are finished
-            boolean allRunsFinished = repo.benchRuns().stream().allMatch(it -> runs.contains(it.name()));
-            if (!allRunsFinished) return;
-            ctx.dsl().deleteFrom(QUEUE).where(QUEUE.CHASH.eq(runResult.chash())).execute();
+        // Recompute significance of the newly finished commit
+        ctx.dsl()
+                .deleteFrom(SIGNIFICANCE_FEED)
+                .where(SIGNIFICANCE_FEED.CHASH.eq(runResult.chash()))
+                .execute();
 
-            // Recompute significance of the newly finished commit
+        // Recompute significance of the next child commit
+        History hChild = HISTORY.as("h_child");
+        History hParent = HISTORY.as("h_parent");
+        Record1<String> childChash = ctx.dsl()
+                .select(hChild.CHASH)
+                .from(hChild.join(hParent).on(hParent.POSITION.add(1).eq(hChild.POSITION)))
+                .where(hParent.CHASH.eq(runResult.chash()))
+                .fetchOne();
+        if (childChash != null)
             ctx.dsl()
                     .deleteFrom(SIGNIFICANCE_FEED)
-                    .where(SIGNIFICANCE_FEED.CHASH.eq(runResult.chash()))
+                    .where(SIGNIFICANCE_FEED.CHASH.eq(childChash.value1()))
                     .execute();
-
-            // Recompute significance of the next child commit
-            History hChild = HISTORY.as("h_child");
-            History hParent = HISTORY.as("h_parent");
-            Record1<String> childChash = ctx.dsl()
-                    .select(hChild.CHASH)
-                    .from(hChild.join(hParent).on(hParent.POSITION.add(1).eq(hChild.POSITION)))
-                    .where(hParent.CHASH.eq(runResult.chash()))
-                    .fetchOne();
-            if (childChash != null)
-                ctx.dsl()
-                        .deleteFrom(SIGNIFICANCE_FEED)
-                        .where(SIGNIFICANCE_FEED.CHASH.eq(childChash.value1()))
-                        .execute();
-        });
-
-        repo.saveRunLog(runResult.chash(), runResult.name(), runResult.lines());
     }
 
-    private void updateMetrics(Configuration ctx, JsonRunResult runResult) {
-        Map<String, MetricsRecord> metrics =
-                ctx.dsl().selectFrom(METRICS).stream().collect(Collectors.toMap(MetricsRecord::getMetric, it -> it));
-
-        for (JsonRunResultEntry entry : runResult.entries()) {
-            MetricsRecord record = metrics.get(entry.metric());
-            if (record == null) {
-                MetricsRecord newRecord =
-                        new MetricsRecord(entry.metric(), entry.unit().orElse(null), Instant.now());
-                metrics.put(entry.metric(), newRecord);
-            } else {
-                entry.unit().ifPresent(record::setUnit);
+    private void updateMetrics(Configuration ctx, Repo repo, List<JsonRunResultEntry> entries) {
+        // Only metrics that are new or whose unit changed need to touch the metrics table.
+        Map<String, Integer> ids = repo.metricCache().ids(ctx);
+        Map<String, @Nullable String> units = repo.metricCache().units(ctx);
+        Map<String, @Nullable String> newMetrics = new LinkedHashMap<>();
+        Map<String, String> changedUnits = new LinkedHashMap<>();
+
+        for (JsonRunResultEntry entry : entries) {
+            if (newMetrics.containsKey(entry.metric())) {
+                entry.unit().ifPresent(unit -> newMetrics.put(entry.metric(), unit));
+            } else if (!units.containsKey(entry.metric())) {
+                newMetrics.put(entry.metric(), entry.unit().orElse(null));
+            } else if (entry.unit().isPresent() && !entry.unit().get().equals(units.get(entry.metric()))) {
+                changedUnits.put(entry.metric(), entry.unit().get());
             }
         }
 
-        ctx.dsl().batchStore(metrics.values()).execute();
+        Instant now = Instant.now();
+        for (List<Map.Entry<String, @Nullable String>> batch : batches(List.copyOf(newMetrics.entrySet()))) {
+            var insert = ctx.dsl().insertInto(METRICS, METRICS.METRIC, METRICS.UNIT, METRICS.FIRST_SEEN_TIME);
+            for (Map.Entry<String, @Nullable String> metric : batch) {
+                insert = insert.values(metric.getKey(), metric.getValue(), now);
+            }
+            insert.onDuplicateKeyIgnore().execute();
+
+            ctx.dsl()
+                    .select(METRICS.METRIC, METRICS.ID)
+                    .from(METRICS)
+                    .where(METRICS.METRIC.in(batch.stream().map(Map.Entry::getKey).toList()))
+                    .forEach(it -> ids.put(it.value1(), it.value2()));
+        }
+
+        if (!changedUnits.isEmpty()) {
+            ctx.dsl()
+                    .batch(changedUnits.entrySet().stream()
+                            .map(it -> ctx.dsl()
+                                    .update(METRICS)
+                                    .set(METRICS.UNIT, it.getValue())
+                                    .where(METRICS.METRIC.eq(it.getKey())))
+                            .toList())
+                    .execute();
+            // Units are part of every comparison involving the metrics
+            CommitComparisonStore.invalidateAll(ctx);
+        }
+
+        units.putAll(newMetrics);
+        units.putAll(changedUnits);
     }
 
     private void addRun(Configuration ctx, String runnerName, JsonRunResult runResult) {
@@ -359,18 +765,33 @@ public record Queue(Repos repos, Runners runners) {
         ctx.dsl().batchInsert(record).execute();
     }
 
-    private void addMeasurements(Configuration ctx, String runnerName, JsonRunResult runResult) {
-        for (JsonRunResultEntry entry : runResult.entries()) {
-            ctx.dsl()
+    private void addMeasurements(
+            Configuration ctx, Repo repo, String runnerName, int commitId, List<JsonRunResultEntry> entries) {
+        // All metrics were added to the metrics table by updateMetrics()
+        Map<String, Integer> ids = repo.metricCache().ids(ctx);
+        for (List<JsonRunResultEntry> batch : batches(entries)) {
+            var insert = ctx.dsl()
                     .insertInto(
                             MEASUREMENTS,
-                            MEASUREMENTS.CHASH,
-                            MEASUREMENTS.METRIC,
+                            MEASUREMENTS.METRIC_ID,
+                            MEASUREMENTS.COMMIT_ID,
                             MEASUREMENTS.VALUE,
-                            MEASUREMENTS.SOURCE)
-                    .values(runResult.chash(), entry.metric(), entry.value(), runnerName)
-                    .onDuplicateKeyIgnore()
-                    .execute();
+                            MEASUREMENTS.SOURCE);
+            for (JsonRunResultEntry entry : batch) {
+                insert = insert.values(ids.get(entry.metric()), commitId, entry.value(), runnerName);
+            }
+            insert.onDuplicateKeyIgnore().execute();
         }
     }
+
+    /**
+     * Split a list into batches small enough for a single statement.
+     */
+    private static <T> List<List<T>> batches(List<T> list) {
+        List<List<T>> result = new ArrayList<>();
+        for (int start = 0; start < list.size(); start += BATCH_SIZE) {
+            result.add(list.subList(start, Math.min(start + BATCH_SIZE, list.size())));
+        }
+        return result;
+    }
 }
@@ -4,7 +4,15 @@ import java.time.Instant;
 import java.util.Optional;
 import org.leanlang.radar.runner.supervisor.JsonOutputLineBatch;
 
-public record Run(String name, String script, String runner, Optional<Active> active, Optional<Finished> finished) {
+public record Run(
+        String name,
+        String script,
+        String runner,
+        Optional<Lease> lease,
+        Optional<Active> active,
+        Optional<Finished> finished) {
+
+    public record Lease(String runner, Instant expires) {}
 
     public record Active(String benchChash, Instant startTime, JsonOutputLineBatch lines) {}
 
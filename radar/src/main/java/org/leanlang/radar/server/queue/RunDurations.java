@@ -0,0 +1,31 @@
+package org.leanlang.radar.server.queue;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Predicts how long a run will take using an exponentially weighted moving average over its past durations,
+ * tracked separately for every repo and run name.
+ */
+final class RunDurations {
+    // Weight of the most recent duration. Roughly the last 10 runs contribute to the prediction.
+    private static final double ALPHA = 0.2;
+    // Prediction for runs that have never been run before
+    private static final Duration UNKNOWN = Duration.ofMinutes(10);
+
+    private record Key(String repo, String run) {}
+
+    private final Map<Key, Double> averageSeconds = new HashMap<>();
+
+    synchronized void add(String repo, String run, Duration duration) {
+        double seconds = duration.toMillis() / 1000.0;
+        averageSeconds.merge(new Key(repo, run), seconds, (avg, it) -> avg + ALPHA * (it - avg));
+    }
+
+    synchronized Duration predict(String repo, String run) {
+        Double seconds = averageSeconds.get(new Key(repo, run));
+        if (seconds == null) return UNKNOWN;
+        return Duration.ofMillis((long) (seconds * 1000));
+    }
+}
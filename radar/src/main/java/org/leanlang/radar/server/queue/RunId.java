@@ -0,0 +1,3 @@
+package org.leanlang.radar.server.queue;
+
+record RunId(String repo, String chash, String name) {}
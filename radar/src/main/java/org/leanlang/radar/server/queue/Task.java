@@ -4,4 +4,4 @@ import java.time.Instant;
 import java.util.List;
 import org.leanlang.radar.server.repos.Repo;
 
-public record Task(Repo repo, String chash, Instant queued, Instant bumped, int priority, List<Run> runs) {}
+public record Task(Repo repo, String chash, Instant queued, Instant bumped, int seq, int priority, List<Run> runs) {}
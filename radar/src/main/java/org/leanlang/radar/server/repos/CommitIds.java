@@ -0,0 +1,48 @@
+package org.leanlang.radar.server.repos;
+
+import static org.leanlang.radar.codegen.jooq.Tables.COMMIT_IDS;
+
+import java.util.Collection;
+import org.jooq.Configuration;
+import org.jooq.Field;
+import org.jooq.Record1;
+import org.jooq.Select;
+import org.jooq.impl.DSL;
+
+/**
+ * Measurements refer to commits by a small integer id instead of by hash. Commits get their id once their first
+ * measurement is added.
+ */
+public final class CommitIds {
+    private CommitIds() {}
+
+    /**
+     * @return the id of a commit, or null if it has no measurements
+     */
+    public static Field<Integer> of(String chash) {
+        return DSL.field(DSL.select(COMMIT_IDS.ID).from(COMMIT_IDS).where(COMMIT_IDS.CHASH.eq(chash)));
+    }
+
+    /**
+     * @return the ids of all given commits that have an id
+     */
+    public static Select<Record1<Integer>> ofAll(Collection<String> chashes) {
+        return DSL.select(COMMIT_IDS.ID).from(COMMIT_IDS).where(COMMIT_IDS.CHASH.in(chashes));
+    }
+
+    /**
+     * @return the id of a commit, giving it a new id if it has none yet
+     */
+    public static int intern(Configuration ctx, String chash) {
+        ctx.dsl()
+                .insertInto(COMMIT_IDS, COMMIT_IDS.CHASH)
+                .values(chash)
+                .onDuplicateKeyIgnore()
+                .execute();
+        return ctx.dsl()
+                .select(COMMIT_IDS.ID)
+                .from(COMMIT_IDS)
+                .where(COMMIT_IDS.CHASH.eq(chash))
+                .fetchSingle(COMMIT_IDS.ID);
+    }
+}
@@ -3,11 +3,10 @@ package org.leanlang.radar.server.repos;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.dropwizard.core.setup.Environment;
 import jakarta.ws.rs.client.Client;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -33,6 +32,8 @@ public final class Repo implements AutoCloseable {
     private final RepoSource benchSource;
 
     private final RepoDb db;
+    private final RepoArchive archive;
+    private final RepoMetricCache metricCache = new RepoMetricCache();
     private final RepoGit git;
     private final RepoGit gitBench;
     private final @Nullable RepoGh gh;
@@ -54,7 +55,9 @@ public final class Repo implements AutoCloseable {
         this.source = RepoSource.parse(config.url);
         this.benchSource = RepoSource.parse(config.benchUrl);
 
-        this.db = new RepoDb(name(), dirs.repoDb(name()));
+        this.db = new RepoDb(
+                name(), dirs.repoDb(name()), environment.metrics(), Duration.ofSeconds(config.dbCheckpointSeconds));
+        this.archive = new RepoArchive(dirs.repoArchive(name()), db);
         this.git = new RepoGit(dirs.repoGit(name()), this.source.gitUrl());
         this.gitBench = new RepoGit(dirs.repoGitBench(name()), this.benchSource.gitUrl());
         this.gh = mkRepoGh(client, config, this.source, githubCredentials);
@@ -133,6 +136,14 @@ public final class Repo implements AutoCloseable {
         return db;
     }
 
+    public RepoArchive archive() {
+        return archive;
+    }
+
+    public RepoMetricCache metricCache() {
+        return metricCache;
+    }
+
     public RepoGit git() {
         return git;
     }
@@ -158,6 +169,14 @@ public final class Repo implements AutoCloseable {
         return new ServerConfigRepoMetricFilter();
     }
 
+    public int backlogSampleStride() {
+        return config.backlogSampleStride;
+    }
+
+    public int queueWeight() {
+        return config.queueWeight;
+    }
+
     public int significantLargeChanges() {
         return config.significantLargeChanges;
     }
@@ -186,6 +205,14 @@ public final class Repo implements AutoCloseable {
         return config.notableMetrics;
     }
 
+    public int dbBackups() {
+        return config.dbBackups;
+    }
+
+    public int dbArchiveAfterCommits() {
+        return config.dbArchiveAfterCommits;
+    }
+
     public boolean newMetrics() {
         return config.newMetrics;
     }
@@ -194,16 +221,67 @@ public final class Repo implements AutoCloseable {
         return Optional.ofNullable(config.newMetricsOmit);
     }
 
-    public void saveRunLog(String chash, String run, List<JsonOutputLine> lines) throws IOException {
-        Path file = dirs.repoRunLog(name(), chash, run);
-        Files.createDirectories(file.getParent());
-        ObjectMapper mapper = environment.getObjectMapper();
-        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardOpenOption.CREATE)) {
-            for (JsonOutputLine line : lines) {
-                writer.write(mapper.writeValueAsString(line));
-                writer.newLine();
-            }
+    /**
+     * @return a description of all config options that affect the history
+     */
+    public String historyConfig() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ref=").append(config.ref).append("\n");
+        sb.append("refRegex=").append(config.refRegex).append("\n");
+        sb.append("refParentsNone=").append(config.refParentsNone).append("\n");
+        sb.append("refParentsFirst=").append(config.refParentsFirst).append("\n");
+        return sb.toString();
+    }
+
+    /**
+     * @return a description of all config options that affect commit comparisons
+     */
+    public String comparisonConfig() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("significantChanges=")
+                .append(config.significantLargeChanges)
+                .append(",")
+                .append(config.significantMediumChanges)
+                .append(",")
+                .append(config.significantSmallChanges)
+                .append("\n");
+        sb.append("significantRunFailures=").append(config.significantRunFailures).append("\n");
+        for (ServerConfigRepoMetricFilter filter : config.significantMetrics) {
+            sb.append("significantMetric=")
+                    .append(List.of(
+                            filter.match.pattern(),
+                            String.valueOf(filter.direction),
+                            String.valueOf(filter.checkDeltaPercentSmall),
+                            String.valueOf(filter.checkDeltaPercentMedium),
+                            String.valueOf(filter.checkDeltaPercentLarge),
+                            String.valueOf(filter.checkQuantileFactorSmall),
+                            String.valueOf(filter.checkQuantileFactorMedium),
+                            String.valueOf(filter.checkQuantileFactorLarge),
+                            String.valueOf(filter.reduceExpectedDirectionReferenceCategory),
+                            String.valueOf(filter.reduceExpectedDirectionFactor),
+                            String.valueOf(filter.reduceAbsoluteLimitsSmall),
+                            String.valueOf(filter.reduceAbsoluteLimitsMedium)))
+                    .append("\n");
         }
+        sb.append("useQuantilesFrom=").append(config.useQuantilesFrom).append("\n");
+        sb.append("notableMetrics=").append(config.notableMetrics).append("\n");
+        sb.append("newMetrics=").append(config.newMetrics).append("\n");
+        sb.append("newMetricsOmit=").append(config.newMetricsOmit).append("\n");
+        return sb.toString();
+    }
+
+    /**
+     * Start writing a new log for a run. The existing log, if any, is only replaced once the writer is committed.
+     */
+    public RunLogWriter writeRunLog(String chash, String run) throws IOException {
+        return new RunLogWriter(environment.getObjectMapper(), dirs.repoRunLog(name(), chash, run));
+    }
+
+    /**
+     * Start collecting the entries of a run in a temporary file, which is deleted once the returned file is closed.
+     */
+    public RunEntriesFile writeRunEntries(String chash, String run) throws IOException {
+        return new RunEntriesFile(dirs.repoRunLogs(name(), chash), run);
     }
 
     public List<JsonOutputLine> loadRunLog(String chash, String run) throws IOException {
@@ -216,6 +294,16 @@ public final class Repo implements AutoCloseable {
         return lines;
     }
 
+    /**
+     * Write a compressed snapshot of the DB into the repo's backup directory and delete old snapshots.
+     *
+     * @param keep how many snapshots to keep at most, including the new one
+     * @return the path of the new snapshot
+     */
+    public Path backupDb(int keep) throws IOException {
+        return new RepoDbBackups(dirs.repoDbBackups(name())).create(db, Math.max(1, keep));
+    }
+
     public void deleteRunLogs(String chash) throws IOException {
         Path dir = dirs.repoRunLogs(name(), chash);
         FsUtil.removeDirRecursively(dir);
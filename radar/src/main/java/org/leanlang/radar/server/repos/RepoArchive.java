@@ -0,0 +1,446 @@
+package org.leanlang.radar.server.repos;
+
+import static org.leanlang.radar.codegen.jooq.Tables.ARCHIVED_COMMITS;
+import static org.leanlang.radar.codegen.jooq.Tables.ARCHIVED_METRICS;
+import static org.leanlang.radar.codegen.jooq.Tables.ARCHIVES;
+import static org.leanlang.radar.codegen.jooq.Tables.COMMIT_IDS;
+import static org.leanlang.radar.codegen.jooq.Tables.HISTORY;
+import static org.leanlang.radar.codegen.jooq.Tables.MEASUREMENTS;
+import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
+import static org.leanlang.radar.codegen.jooq.Tables.QUEUE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.jooq.Configuration;
+import org.jooq.impl.DSL;
+import org.jspecify.annotations.Nullable;
+import org.leanlang.radar.Constants;
+import org.leanlang.radar.codegen.jooq.tables.records.MeasurementsRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cold storage for the measurements of old commits.
+ * <p>
+ * Most measurements belong to old commits and are only read when someone looks at the entire history. To keep the DB
+ * small, {@link #archive(int)} moves the measurements of old commits out of the measurements table into compressed
+ * archive files, one file per range of commits. The archived_commits table records which file contains which commit's
+ * measurements. Code reading the measurements of specific commits must look in both the measurements table and here.
+ * <p>
+ * Archive files are stored metric by metric, and every metric's values are compressed separately. This way, reading a
+ * few metrics over many commits, like the graph does, only decompresses the data of these metrics.
+ * <p>
+ * Archive files are never modified. They contain metric names instead of ids, and the archived_metrics table maps
+ * these names to the current metrics, so renaming or deleting a metric also affects its archived measurements. When a
+ * commit is benchmarked again, it is removed from the archived_commits table and its archived measurements are ignored.
+ */
+public final class RepoArchive {
+    private static final Logger log = LoggerFactory.getLogger(RepoArchive.class);
+
+    private static final int FORMAT_VERSION = 2;
+
+    private record Row(String chash, String metric, float value, @Nullable String source) {}
+
+    /**
+     * The values of a single metric, sorted by commit index. A source index of -1 means there is no source.
+     */
+    private record Block(int[] commits, float[] values, int[] sources) {}
+
+    /**
+     * An archive file with a decoded header. Commits, metric names and sources are stored only once per file and
+     * referred to by their index. Metric names and sources are sorted. The blocks are still compressed, the block of
+     * metric {@code i} starts at {@code offsets[i]} and ends at {@code offsets[i + 1]}.
+     */
+    private record Chunk(List<String> commits, List<String> metrics, List<String> sources, int[] offsets, byte[] data) {
+        Block block(int metric) throws IOException {
+            int length = offsets[metric + 1] - offsets[metric];
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new ByteArrayInputStream(data, offsets[metric], length))))) {
+                int size = in.readInt();
+                int[] commitIndices = new int[size];
+                float[] values = new float[size];
+                int[] sourceIndices = new int[size];
+                for (int i = 0; i < size; i++) commitIndices[i] = in.readInt();
+                for (int i = 0; i < size; i++) values[i] = in.readFloat();
+                for (int i = 0; i < size; i++) sourceIndices[i] = in.readInt();
+                return new Block(commitIndices, values, sourceIndices);
+            }
+        }
+    }
+
+    private final Path dir;
+    private final RepoDb db;
+
+    // Archive files by file name, least recently used first
+    private final LinkedHashMap<String, Chunk> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheBytes = 0;
+
+    RepoArchive(Path dir, RepoDb db) {
+        this.dir = dir;
+        this.db = db;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) out.writeUTF(string);
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> strings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) strings.add(in.readUTF());
+        return strings;
+    }
+
+    private static Map<String, Integer> indices(List<String> strings) {
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < strings.size(); i++) indices.put(strings.get(i), i);
+        return indices;
+    }
+
+    private static byte[] compress(List<Row> rows, List<String> commits, List<String> sources) throws IOException {
+        Map<String, Integer> commitIndices = indices(commits);
+        Map<String, Integer> sourceIndices = indices(sources);
+        List<Row> sorted = rows.stream()
+                .sorted(Comparator.comparing((Row it) -> commitIndices.get(it.chash())))
+                .toList();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes)))) {
+            out.writeInt(sorted.size());
+            // Storing columns instead of rows compresses better
+            for (Row row : sorted) out.writeInt(commitIndices.get(row.chash()));
+            for (Row row : sorted) out.writeFloat(row.value());
+            for (Row row : sorted) out.writeInt(row.source() == null ? -1 : sourceIndices.get(row.source()));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(Path file, List<Row> rows) throws IOException {
+        List<String> commits = rows.stream().map(Row::chash).distinct().toList();
+        List<String> sources = rows.stream()
+                .map(Row::source)
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .toList();
+        Map<String, List<Row>> metrics =
+                rows.stream().collect(Collectors.groupingBy(Row::metric, TreeMap::new, Collectors.toList()));
+
+        List<byte[]> blocks = new ArrayList<>();
+        for (List<Row> metricRows : metrics.values()) blocks.add(compress(metricRows, commits, sources));
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(header)))) {
+            writeStrings(out, commits);
+            writeStrings(out, List.copyOf(metrics.keySet()));
+            writeStrings(out, sources);
+            for (byte[] block : blocks) out.writeInt(block.length);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(header.size());
+            header.writeTo(out);
+            for (byte[] block : blocks) out.write(block);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static Chunk read(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION) throw new IOException("Unknown format version " + version + " of " + file);
+        int headerLength = buffer.getInt();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(data, buffer.position(), headerLength))))) {
+            List<String> commits = readStrings(in);
+            List<String> metrics = readStrings(in);
+            List<String> sources = readStrings(in);
+            int[] offsets = new int[metrics.size() + 1];
+            offsets[0] = buffer.position() + headerLength;
+            for (int i = 0; i < metrics.size(); i++) offsets[i + 1] = offsets[i] + in.readInt();
+            return new Chunk(commits, metrics, sources, offsets, data);
+        }
+    }
+
+    private synchronized Chunk load(String file) {
+        Chunk chunk = cache.get(file);
+        if (chunk != null) return chunk;
+
+        try {
+            chunk = read(dir.resolve(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        cache.put(file, chunk);
+        cacheBytes += chunk.data().length;
+        while (cacheBytes > Constants.ARCHIVE_CACHE_BYTES && cache.size() > 1) uncache(cache.firstEntry().getKey());
+        return chunk;
+    }
+
+    private synchronized void uncache(String file) {
+        Chunk chunk = cache.remove(file);
+        if (chunk != null) cacheBytes -= chunk.data().length;
+    }
+
+    /**
+     * @return the archived measurements of a commit, or an empty list if the commit's measurements aren't archived
+     */
+    public List<MeasurementsRecord> measurements(Configuration ctx, String chash) {
+        String file = ctx.dsl()
+                .select(ARCHIVES.FILE)
+                .from(ARCHIVED_COMMITS.join(ARCHIVES).on(ARCHIVES.ID.eq(ARCHIVED_COMMITS.ARCHIVE_ID)))
+                .where(ARCHIVED_COMMITS.CHASH.eq(chash))
+                .fetchOne(ARCHIVES.FILE);
+        if (file == null) return List.of();
+
+        Chunk chunk = load(file);
+        int commit = chunk.commits().indexOf(chash);
+        if (commit < 0) return List.of();
+        Integer commitId = ctx.dsl().select(CommitIds.of(chash)).fetchOne(0, Integer.class);
+        if (commitId == null) return List.of();
+
+        Map<String, Integer> metricIds =
+                ctx.dsl().selectFrom(ARCHIVED_METRICS).fetchMap(ARCHIVED_METRICS.NAME, ARCHIVED_METRICS.METRIC_ID);
+        List<MeasurementsRecord> result = new ArrayList<>();
+        try {
+            for (int metric = 0; metric < chunk.metrics().size(); metric++) {
+                Integer metricId = metricIds.get(chunk.metrics().get(metric));
+                if (metricId == null) continue; // The metric was deleted
+                Block block = chunk.block(metric);
+                int i = Arrays.binarySearch(block.commits(), commit);
+                if (i < 0) continue;
+                int source = block.sources()[i];
+                result.add(new MeasurementsRecord(
+                        metricId, commitId, block.values()[i], source < 0 ? null : chunk.sources().get(source)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    /**
+     * @param commits how many of the latest commits of the history to look at
+     * @return the archived values of the given metrics, by metric id and history position
+     */
+    public Map<Integer, Map<Integer, Float>> values(Configuration ctx, Collection<Integer> metricIds, int commits) {
+        Map<Integer, Map<Integer, Float>> result = new HashMap<>();
+
+        Map<String, Integer> metricIdsByName = ctx.dsl()
+                .selectFrom(ARCHIVED_METRICS)
+                .where(ARCHIVED_METRICS.METRIC_ID.in(metricIds))
+                .fetchMap(ARCHIVED_METRICS.NAME, ARCHIVED_METRICS.METRIC_ID);
+        if (metricIdsByName.isEmpty()) return result;
+
+        Integer maxPosition = ctx.dsl().select(DSL.max(HISTORY.POSITION)).from(HISTORY).fetchOne(0, Integer.class);
+        if (maxPosition == null) return result;
+
+        // History positions by commit, for every archive file
+        Map<String, Map<String, Integer>> positionsByFile = new HashMap<>();
+        ctx.dsl()
+                .select(HISTORY.POSITION, HISTORY.CHASH, ARCHIVES.FILE)
+                .from(HISTORY.join(ARCHIVED_COMMITS)
+                        .on(ARCHIVED_COMMITS.CHASH.eq(HISTORY.CHASH))
+                        .join(ARCHIVES)
+                        .on(ARCHIVES.ID.eq(ARCHIVED_COMMITS.ARCHIVE_ID)))
+                .where(HISTORY.POSITION.gt(maxPosition - commits))
+                .forEach(it -> positionsByFile
+                        .computeIfAbsent(it.value3(), file -> new HashMap<>())
+                        .put(it.value2(), it.value1()));
+
+        try {
+            for (Map.Entry<String, Map<String, Integer>> entry : positionsByFile.entrySet()) {
+                Chunk chunk = load(entry.getKey());
+                Map<String, Integer> positions = entry.getValue();
+                for (Map.Entry<String, Integer> metric : metricIdsByName.entrySet()) {
+                    int index = Collections.binarySearch(chunk.metrics(), metric.getKey());
+                    if (index < 0) continue;
+                    Block block = chunk.block(index);
+                    for (int i = 0; i < block.commits().length; i++) {
+                        Integer position = positions.get(chunk.commits().get(block.commits()[i]));
+                        if (position == null) continue; // Out of range, or this file's values are no longer used
+                        result.computeIfAbsent(metric.getValue(), k -> new HashMap<>())
+                                .put(position, block.values()[i]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Move the measurements of all commits except for the latest {@code keepCommits} commits of the history into
+     * archive files. Commits in the queue are left alone since their measurements are about to change.
+     *
+     * @return the number of commits whose measurements were archived
+     */
+    public int archive(int keepCommits) throws IOException {
+        Files.createDirectories(dir);
+        deleteUnusedArchives();
+
+        Integer maxPosition =
+                db.read().dsl().select(DSL.max(HISTORY.POSITION)).from(HISTORY).fetchOne(0, Integer.class);
+        if (maxPosition == null) return 0;
+
+        int total = 0;
+        while (true) {
+            List<String> chunk = db.read()
+                    .dsl()
+                    .select(HISTORY.CHASH)
+                    .from(HISTORY)
+                    .where(HISTORY.POSITION.le(maxPosition - keepCommits))
+                    .andExists(DSL.selectOne()
+                            .from(COMMIT_IDS.join(MEASUREMENTS).on(MEASUREMENTS.COMMIT_ID.eq(COMMIT_IDS.ID)))
+                            .where(COMMIT_IDS.CHASH.eq(HISTORY.CHASH)))
+                    .andNotExists(DSL.selectOne().from(QUEUE).where(QUEUE.CHASH.eq(HISTORY.CHASH)))
+                    .orderBy(HISTORY.POSITION)
+                    .limit(Constants.ARCHIVE_CHUNK_COMMITS)
+                    .fetch(HISTORY.CHASH);
+            if (chunk.isEmpty()) break;
+
+            int archived = archiveChunk(chunk);
+            if (archived == 0) break;
+            total += archived;
+        }
+
+        log.info("Archived measurements of {} commits", total);
+        return total;
+    }
+
+    private static List<Row> fetchRows(Configuration ctx, List<String> chashes) {
+        return ctx.dsl()
+                .select(COMMIT_IDS.CHASH, METRICS.METRIC, MEASUREMENTS.VALUE, MEASUREMENTS.SOURCE)
+                .from(COMMIT_IDS.join(MEASUREMENTS)
+                        .on(MEASUREMENTS.COMMIT_ID.eq(COMMIT_IDS.ID))
+                        .join(METRICS)
+                        .on(METRICS.ID.eq(MEASUREMENTS.METRIC_ID)))
+                .where(COMMIT_IDS.CHASH.in(chashes))
+                .andNotExists(DSL.selectOne().from(QUEUE).where(QUEUE.CHASH.eq(COMMIT_IDS.CHASH)))
+                .orderBy(COMMIT_IDS.CHASH, MEASUREMENTS.METRIC_ID)
+                .fetch(it -> new Row(it.value1(), it.value2(), it.value3(), it.value4()));
+    }
+
+    private int archiveChunk(List<String> chashes) throws IOException {
+        // Compressing and syncing the file happens without holding the write lock
+        List<Row> rows = db.readTransactionResult(ctx -> fetchRows(ctx, chashes));
+        if (rows.isEmpty()) return 0;
+        Path file = Files.createTempFile(dir, "measurements-", ".bin");
+        int archived;
+        try {
+            write(file, rows);
+
+            archived = db.writeTransactionResult(ctx -> {
+                // Commits may have been enqueued or metrics renamed in the meantime. Reading the rows again is much
+                // cheaper than writing the file, so this doesn't block other writers long.
+                if (!fetchRows(ctx, chashes).equals(rows)) {
+                    log.info("Measurements changed while archiving, trying again later");
+                    return 0;
+                }
+
+                String fileName = file.getFileName().toString();
+                ctx.dsl().insertInto(ARCHIVES, ARCHIVES.FILE).values(fileName).execute();
+                Integer archiveId = ctx.dsl()
+                        .select(ARCHIVES.ID)
+                        .from(ARCHIVES)
+                        .where(ARCHIVES.FILE.eq(fileName))
+                        .fetchOne(ARCHIVES.ID);
+
+                Set<String> archivedChashes =
+                        rows.stream().map(Row::chash).collect(Collectors.toCollection(LinkedHashSet::new));
+
+                ctx.dsl()
+                        .insertInto(ARCHIVED_METRICS, ARCHIVED_METRICS.NAME, ARCHIVED_METRICS.METRIC_ID)
+                        .select(DSL.select(METRICS.METRIC, METRICS.ID)
+                                .from(METRICS)
+                                .where(METRICS.ID.in(DSL.selectDistinct(MEASUREMENTS.METRIC_ID)
+                                        .from(MEASUREMENTS)
+                                        .where(MEASUREMENTS.COMMIT_ID.in(CommitIds.ofAll(archivedChashes))))))
+                        .onDuplicateKeyIgnore()
+                        .execute();
+
+                var insert =
+                        ctx.dsl().insertInto(ARCHIVED_COMMITS, ARCHIVED_COMMITS.CHASH, ARCHIVED_COMMITS.ARCHIVE_ID);
+                for (String chash : archivedChashes) insert = insert.values(chash, archiveId);
+                insert.onConflict(ARCHIVED_COMMITS.CHASH)
+                        .doUpdate()
+                        .set(ARCHIVED_COMMITS.ARCHIVE_ID, archiveId)
+                        .execute();
+
+                ctx.dsl()
+                        .deleteFrom(MEASUREMENTS)
+                        .where(MEASUREMENTS.COMMIT_ID.in(CommitIds.ofAll(archivedChashes)))
+                        .execute();
+
+                return archivedChashes.size();
+            });
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+
+        if (archived == 0) Files.deleteIfExists(file);
+        return archived;
+    }
+
+    private void deleteUnusedArchives() throws IOException {
+        // Archives whose commits were all benchmarked again
+        db.writeTransaction(ctx -> ctx.dsl()
+                .deleteFrom(ARCHIVES)
+                .whereNotExists(DSL.selectOne()
+                        .from(ARCHIVED_COMMITS)
+                        .where(ARCHIVED_COMMITS.ARCHIVE_ID.eq(ARCHIVES.ID)))
+                .execute());
+
+        // Files of deleted archives and left-overs from failed attempts
+        Set<String> used =
+                new HashSet<>(db.read().dsl().select(ARCHIVES.FILE).from(ARCHIVES).fetch(ARCHIVES.FILE));
+        List<Path> unused;
+        try (Stream<Path> files = Files.list(dir)) {
+            unused = files.filter(it -> !used.contains(it.getFileName().toString())).toList();
+        }
+        for (Path file : unused) {
+            log.info("Deleting unused archive file {}", file);
+            Files.delete(file);
+            uncache(file.getFileName().toString());
+        }
+    }
+}
@@ -1,52 +1,175 @@
 package org.leanlang.radar.server.repos;
 
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationInfoService;
+import org.jooq.ConnectionProvider;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
 import org.jooq.TransactionalCallable;
 import org.jooq.TransactionalRunnable;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
+import org.leanlang.radar.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
 import org.sqlite.SQLiteDataSource;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.core.DB;
 
 public final class RepoDb implements AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(RepoDb.class);
 
+    // Reads are memory-mapped, which saves copying pages from the OS page cache into SQLite's own page cache.
+    // https://www.sqlite.org/mmap.html
+    private static final long READ_MMAP_SIZE = 1024L * 1024 * 1024; // 1 GiB
+
+    private record Pools(HikariDataSource readDataSource, Connection writeConnection, DSLContext writeDslContext) {
+
+        void close() {
+            readDataSource.close();
+            try {
+                writeConnection.close();
+            } catch (SQLException e) {
+                throw new DataAccessException("Failed to close write connection", e);
+            }
+        }
+    }
+
     private final String name;
-    private final HikariDataSource hikariDataSource;
-    private final DSLContext dslContext;
+    private final Path path;
+    private final MetricRegistry metricRegistry;
+    private final SQLiteDataSource sqLiteDataSource;
+    private final SQLiteDataSource readSqliteDataSource;
+    private final Flyway flyway;
+    private final DSLContext readDslContext;
     private final Lock writeLock = new ReentrantLock();
+    private final Timer writeLockWait;
+    private final RepoDbGroupCommit groupCommit;
+    private final RepoDbCheckpointer checkpointer;
+
+    // Held while the DB file is replaced and while checkpointing
+    private final Object fileLock = new Object();
 
-    public RepoDb(String name, Path path) throws IOException {
+    // Every read connection holds the read lock, so the pools are only replaced once all reads are done.
+    // The write lock is only taken while already holding the (unrelated) lock for writing, see vacuumOnline().
+    private final ReadWriteLock poolsLock = new ReentrantReadWriteLock();
+    private volatile Pools pools;
+
+    /**
+     * @param checkpointDelay time between WAL checkpoints, or zero to leave checkpointing to SQLite entirely
+     */
+    public RepoDb(String name, Path path, MetricRegistry metricRegistry, Duration checkpointDelay)
+            throws IOException {
         log.info("Opening DB for {}", name);
         this.name = name;
+        this.path = path;
+        this.metricRegistry = metricRegistry;
 
-        // Configure DB connection
+        // Configure DB connections
         String jdbcUrl = "jdbc:sqlite:file:" + path.toAbsolutePath();
-        SQLiteDataSource sqLiteDataSource = new SQLiteDataSource(buildSqliteConfig());
+        this.sqLiteDataSource = new SQLiteDataSource(buildSqliteConfig());
         sqLiteDataSource.setUrl(jdbcUrl);
-
-        // Configure DB connection pool
-        HikariConfig hikariConfig = new HikariConfig();
-        hikariConfig.setDataSource(sqLiteDataSource);
-        hikariConfig.setPoolName("db-pool-" + name);
+        SQLiteConfig readSqliteConfig = buildSqliteConfig();
+        readSqliteConfig.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, Long.toString(READ_MMAP_SIZE));
+        this.readSqliteDataSource = new SQLiteDataSource(readSqliteConfig);
+        readSqliteDataSource.setUrl(jdbcUrl);
 
         // Create and migrate DB file
         Files.createDirectories(path.getParent());
-        Flyway.configure().dataSource(sqLiteDataSource).load().migrate();
+        // Migrating validates the checksums of all applied migrations, which is unnecessary if there is nothing to do.
+        this.flyway = Flyway.configure().dataSource(sqLiteDataSource).load();
+        if (flyway.info().pending().length > 0) flyway.migrate();
 
         // Connect to DB
-        this.hikariDataSource = new HikariDataSource(hikariConfig);
-        this.dslContext = DSL.using(hikariDataSource, SQLDialect.SQLITE);
+        this.pools = openPools();
+        this.readDslContext = DSL.using(new ReadConnectionProvider(), SQLDialect.SQLITE);
+        this.writeLockWait = metricRegistry.timer(MetricRegistry.name("db", name, "write-lock-wait"));
+        this.groupCommit = new RepoDbGroupCommit(name, () -> pools.writeDslContext(), writeLock);
+        this.checkpointer = new RepoDbCheckpointer(
+                name, path, sqLiteDataSource, writeLock, fileLock, metricRegistry, checkpointDelay);
+    }
+
+    private Pools openPools() {
+        // Readers can run in parallel in WAL mode, but there can only ever be one writer at a time.
+        // Giving the writer its own connection means that it never waits for a connection held by a long read.
+        HikariConfig readConfig = new HikariConfig();
+        readConfig.setDataSource(readSqliteDataSource);
+        readConfig.setPoolName("db-pool-read-" + name);
+        readConfig.setMaximumPoolSize(
+                Math.max(Runtime.getRuntime().availableProcessors(), Constants.DB_READ_POOL_MIN_SIZE));
+        // https://www.sqlite.org/pragma.html#pragma_query_only
+        readConfig.setConnectionInitSql("PRAGMA query_only = true");
+        readConfig.setMetricRegistry(metricRegistry);
+        HikariDataSource readDataSource = new HikariDataSource(readConfig);
+
+        // The writer connection is opened directly instead of through a pool. A pool may replace its connections at
+        // any time, which would silently drop the temporary triggers of vacuumOnline().
+        Connection writeConnection;
+        try {
+            writeConnection = sqLiteDataSource.getConnection();
+        } catch (SQLException e) {
+            readDataSource.close();
+            throw new DataAccessException("Failed to open write connection", e);
+        }
+
+        return new Pools(readDataSource, writeConnection, DSL.using(writeConnection, SQLDialect.SQLITE));
+    }
+
+    /**
+     * Hands out connections from the current read pool. Every connection holds the read lock of {@link #poolsLock}
+     * until it is released, so the pools are never closed while a read is running.
+     */
+    private final class ReadConnectionProvider implements ConnectionProvider {
+        @Override
+        public Connection acquire() {
+            poolsLock.readLock().lock();
+            try {
+                return pools.readDataSource().getConnection();
+            } catch (SQLException e) {
+                poolsLock.readLock().unlock();
+                throw new DataAccessException("Failed to get read connection", e);
+            } catch (RuntimeException e) {
+                poolsLock.readLock().unlock();
+                throw e;
+            }
+        }
+
+        @Override
+        public void release(Connection connection) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                throw new DataAccessException("Failed to release read connection", e);
+            } finally {
+                poolsLock.readLock().unlock();
+            }
+        }
     }
 
     static SQLiteConfig buildSqliteConfig() {
@@ -82,23 +205,58 @@ public final class RepoDb implements AutoCloseable {
     @Override
     public void close() {
         log.info("Closing DB for {}", name);
-        hikariDataSource.close();
+        checkpointer.close();
+        groupCommit.close();
+        pools.close();
+        metricRegistry.removeMatching(MetricFilter.startsWith(MetricRegistry.name("db", name) + "."));
     }
 
     public RepoDbRead read() {
-        return new RepoDbRead(dslContext);
+        return new RepoDbRead(readDslContext);
     }
 
     public void readTransaction(TransactionalRunnable transaction) {
-        dslContext.transaction(transaction);
+        readDslContext.transaction(transaction);
     }
 
     public <T> T readTransactionResult(TransactionalCallable<T> transaction) {
-        return dslContext.transactionResult(transaction);
+        return readDslContext.transactionResult(transaction);
+    }
+
+    /**
+     * Check that all migrations were applied successfully, that the connections are open and that the DB can be read.
+     *
+     * @return a description of the problem, or nothing if the DB is healthy
+     */
+    public Optional<String> checkHealth() {
+        // Flyway opens its own connection, which must not be open while vacuumOnline() replaces the file
+        poolsLock.readLock().lock();
+        try {
+            MigrationInfoService info = flyway.info();
+            if (info.pending().length > 0) return Optional.of(info.pending().length + " pending migrations");
+            if (Arrays.stream(info.applied()).anyMatch(it -> it.getState().isFailed())) {
+                return Optional.of("Failed migration");
+            }
+
+            Pools pools = this.pools;
+            if (!pools.readDataSource().isRunning()) return Optional.of("Read pool is closed");
+            if (pools.writeConnection().isClosed()) return Optional.of("Write connection is closed");
+
+            readDslContext.selectOne().fetch();
+            return Optional.empty();
+        } catch (SQLException | RuntimeException e) {
+            return Optional.of(e.toString());
+        } finally {
+            poolsLock.readLock().unlock();
+        }
     }
 
     private RepoDbWrite write() {
-        return new RepoDbWrite(dslContext, writeLock);
+        // The pools may only be accessed after acquiring the lock since they may be replaced otherwise
+        try (Timer.Context ignored = writeLockWait.time()) {
+            writeLock.lock();
+        }
+        return new RepoDbWrite(pools.writeDslContext(), writeLock);
     }
 
     public void writeTransaction(TransactionalRunnable transaction) {
@@ -120,4 +278,214 @@ public final class RepoDb implements AutoCloseable {
             return write.dsl().transactionResult(transaction);
         }
     }
+
+    /**
+     * Like {@link #writeTransaction(TransactionalRunnable)}, but runs {@code afterCommit} once the transaction has been
+     * committed and before the write lock is released. If the transaction fails, {@code afterCommit} is not run.
+     * <p>
+     * Use this to update in-memory state that mirrors the DB. The state never sees changes that are rolled back, and it
+     * changes in the same order as the DB does.
+     */
+    public void writeTransaction(TransactionalRunnable transaction, Runnable afterCommit) {
+        try (var write = write()) {
+            write.dsl().transaction(transaction);
+            afterCommit.run();
+        }
+    }
+
+    /**
+     * Like {@link #writeTransaction(TransactionalRunnable, Runnable)}, but returns the transaction's result.
+     */
+    public <T> T writeTransactionResult(TransactionalCallable<T> transaction, Runnable afterCommit) {
+        try (var write = write()) {
+            T result = write.dsl().transactionResult(transaction);
+            afterCommit.run();
+            return result;
+        }
+    }
+
+    /**
+     * Compact the DB file while blocking writes for only a moment, unlike a plain {@code VACUUM}.
+     * <p>
+     * The DB is first copied into a fresh file with {@code VACUUM INTO} while reads and writes continue as usual. Rows
+     * modified in the meantime are tracked by temporary triggers on the writer connection. Then, while holding the
+     * write lock, these rows are copied into the new file, running reads are waited for, the new file replaces the old
+     * one and the connections are reopened. New reads wait until the connections are reopened. If running reads take
+     * longer than {@link Constants#DB_VACUUM_DRAIN_TIMEOUT}, the vacuum is aborted.
+     * <p>
+     * Synchronized so it never runs at the same time as {@link #backupInto(Path)}. Closing the backup's connection
+     * after the file was replaced could otherwise remove the new file's WAL.
+     */
+    public synchronized void vacuumOnline() throws IOException {
+        Path vacuumed = path.resolveSibling(path.getFileName() + ".vacuum");
+        Files.deleteIfExists(vacuumed);
+
+        try (var write = write()) {
+            RepoDbOnlineVacuum.trackChanges(write.dsl());
+        }
+
+        try {
+            Instant start = Instant.now();
+            try (Connection connection = sqLiteDataSource.getConnection()) {
+                DSL.using(connection, SQLDialect.SQLITE)
+                        .execute("VACUUM INTO {0}", DSL.inline(vacuumed.toString()));
+            } catch (SQLException e) {
+                throw new DataAccessException("Failed to vacuum into " + vacuumed, e);
+            }
+            log.info("Vacuumed into new file in {} s", start.until(Instant.now()).toSeconds());
+
+            try (var write = write()) {
+                Instant swapStart = Instant.now();
+                int changes = RepoDbOnlineVacuum.copyChanges(write.dsl(), vacuumed);
+                RepoDbOnlineVacuum.stopTrackingChanges(write.dsl());
+                replaceFile(vacuumed);
+                log.info(
+                        "Copied {} changes and swapped in new file in {} ms",
+                        changes,
+                        swapStart.until(Instant.now()).toMillis());
+            }
+        } catch (IOException | RuntimeException e) {
+            try (var write = write()) {
+                RepoDbOnlineVacuum.stopTrackingChanges(write.dsl());
+            }
+            Files.deleteIfExists(vacuumed);
+            throw e;
+        }
+    }
+
+    /**
+     * Replace the DB file with {@code replacement} and reopen the connections. Must be called while holding the write
+     * lock.
+     */
+    private void replaceFile(Path replacement) throws IOException {
+        Lock drain = poolsLock.writeLock();
+        try {
+            if (!drain.tryLock(Constants.DB_VACUUM_DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for reads to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for reads to finish", e);
+        }
+
+        try {
+            synchronized (fileLock) {
+                pools.close();
+                try {
+                    // Closing the last connection checkpoints and removes these files. If they're still around, the
+                    // DB is still open somewhere else, and replacing the file underneath it could corrupt the DB.
+                    Path wal = path.resolveSibling(path.getFileName() + "-wal");
+                    Path shm = path.resolveSibling(path.getFileName() + "-shm");
+                    if (Files.exists(wal) || Files.exists(shm)) {
+                        throw new IOException("DB is still open elsewhere, not replacing " + path);
+                    }
+                    Files.move(
+                            replacement, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    pools = openPools();
+                }
+            }
+        } finally {
+            drain.unlock();
+        }
+    }
+
+    /**
+     * Copy a consistent snapshot of the DB into a new file using SQLite's online backup API.
+     * <p>
+     * The backup runs on its own connection. Pages are copied in small steps with a short pause between the steps so
+     * the backup doesn't hog the disk. Every step reads in its own transaction, so the backup never keeps the WAL from
+     * being checkpointed and never blocks writers. If the DB is written to between two steps, SQLite starts the backup
+     * over. After {@link Constants#DB_BACKUP_MAX_RESTARTS} restarts, the remaining steps run without pauses while
+     * holding the write lock, so backups of busy DBs still finish.
+     * <p>
+     * See also https://www.sqlite.org/backup.html
+     */
+    public synchronized void backupInto(Path target) throws IOException {
+        Files.deleteIfExists(target);
+        BackupProgress progress = new BackupProgress();
+        try (Connection connection = sqLiteDataSource.getConnection()) {
+            int result = connection
+                    .unwrap(SQLiteConnection.class)
+                    .getDatabase()
+                    .backup(
+                            "main",
+                            target.toAbsolutePath().toString(),
+                            progress,
+                            100, // Milliseconds to sleep when the target is busy, which it never should be
+                            3,
+                            Constants.DB_BACKUP_PAGES_PER_STEP);
+            if (result != SQLiteErrorCode.SQLITE_OK.code) {
+                throw new DataAccessException(
+                        "Failed to back up into " + target + ": " + SQLiteErrorCode.getErrorCode(result));
+            }
+        } catch (SQLException e) {
+            Files.deleteIfExists(target);
+            throw new DataAccessException("Failed to back up into " + target, e);
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        } finally {
+            progress.unlock();
+        }
+    }
+
+    /**
+     * Called by SQLite after every step of {@link #backupInto(Path)}, on the thread running the backup.
+     */
+    private final class BackupProgress implements DB.ProgressObserver {
+        private int previousCopied = 0;
+        private int restarts = 0;
+        private boolean locked = false;
+
+        @Override
+        public void progress(int remaining, int pageCount) {
+            int copied = pageCount - remaining;
+            if (copied < previousCopied) restarts++;
+            previousCopied = copied;
+            if (locked) return;
+
+            if (restarts >= Constants.DB_BACKUP_MAX_RESTARTS) {
+                log.info("Backup of {} restarted {} times, blocking writes until it is done", name, restarts);
+                writeLock.lock();
+                locked = true;
+                return;
+            }
+
+            LockSupport.parkNanos(Constants.DB_BACKUP_STEP_PAUSE.toNanos());
+        }
+
+        void unlock() {
+            if (!locked) return;
+            locked = false;
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Like {@link #writeTransaction(TransactionalRunnable)}, but the transaction may be committed together with other
+     * small write transactions submitted around the same time. Use this when doing many small writes in a row, and
+     * wait for the results with {@link #awaitGrouped(List)}.
+     *
+     * @return a future that completes once the transaction has been committed or has failed
+     */
+    public CompletableFuture<Void> writeTransactionGrouped(TransactionalRunnable transaction) {
+        return groupCommit.submit(transaction);
+    }
+
+    /**
+     * Wait until all grouped write transactions have been committed.
+     *
+     * @throws RuntimeException the first failure of any of the transactions
+     */
+    public static void awaitGrouped(List<CompletableFuture<Void>> writes) {
+        for (CompletableFuture<Void> write : writes) {
+            try {
+                write.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) throw cause;
+                throw e;
+            }
+        }
+    }
 }
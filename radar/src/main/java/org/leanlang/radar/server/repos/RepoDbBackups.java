@@ -0,0 +1,118 @@
+package org.leanlang.radar.server.repos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compressed and checksummed DB snapshots in a directory.
+ * <p>
+ * Every snapshot consists of a gzipped DB file and a file containing its SHA-256 checksum in the format understood by
+ * {@code sha256sum --check}. Snapshot names contain their creation time, so sorting them by name sorts them by age.
+ */
+final class RepoDbBackups {
+    private static final Logger log = LoggerFactory.getLogger(RepoDbBackups.class);
+
+    private static final String PREFIX = "data-";
+    private static final String SUFFIX = ".db.gz";
+    private static final String CHECKSUM_SUFFIX = ".sha256";
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    private final Path dir;
+
+    RepoDbBackups(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Create a new snapshot and delete the oldest snapshots so that at most {@code keep} remain.
+     * <p>
+     * Fails instead of overwriting an existing snapshot with the same name.
+     *
+     * @return the path of the new snapshot
+     */
+    Path create(RepoDb db, int keep) throws IOException {
+        Files.createDirectories(dir);
+        String name = PREFIX + TIME_FORMAT.format(Instant.now()) + SUFFIX;
+        Path file = dir.resolve(name);
+        Path checksumFile = dir.resolve(name + CHECKSUM_SUFFIX);
+        Path uncompressed = dir.resolve(name + ".tmp.db");
+        Path compressed = dir.resolve(name + ".tmp");
+
+        // Claims the name, failing if it is already taken
+        Files.createFile(checksumFile);
+        boolean created = false;
+        try {
+            Instant start = Instant.now();
+            db.backupInto(uncompressed);
+            log.info("Backed up DB in {} s", start.until(Instant.now()).toSeconds());
+
+            String checksum = compress(uncompressed, compressed);
+            Files.move(compressed, file, StandardCopyOption.ATOMIC_MOVE);
+            Files.writeString(checksumFile, checksum + "  " + name + "\n");
+            log.info("Wrote {} ({} bytes, sha256 {})", file, Files.size(file), checksum);
+            created = true;
+        } finally {
+            Files.deleteIfExists(uncompressed);
+            Files.deleteIfExists(compressed);
+            if (!created) Files.deleteIfExists(checksumFile);
+        }
+
+        prune(keep);
+        return file;
+    }
+
+    /**
+     * @return the hex-encoded SHA-256 checksum of the compressed file
+     */
+    private static String compress(Path source, Path target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform must support SHA-256
+        }
+
+        try (InputStream in = Files.newInputStream(source);
+                OutputStream out = new GZIPOutputStream(
+                        new DigestOutputStream(Files.newOutputStream(target), digest), 64 * 1024)) {
+            in.transferTo(out);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void prune(int keep) throws IOException {
+        List<Path> snapshots;
+        try (Stream<Path> files = Files.list(dir)) {
+            snapshots = files.filter(it -> {
+                        String name = it.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted()
+                    .toList()
+                    .reversed();
+        }
+
+        for (Path snapshot : snapshots.stream().skip(keep).toList()) {
+            log.info("Deleting old backup {}", snapshot);
+            Files.deleteIfExists(snapshot.resolveSibling(snapshot.getFileName() + CHECKSUM_SUFFIX));
+            Files.delete(snapshot);
+        }
+    }
+}
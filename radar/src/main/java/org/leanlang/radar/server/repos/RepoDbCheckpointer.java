@@ -0,0 +1,150 @@
+package org.leanlang.radar.server.repos;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import org.jooq.Record;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.leanlang.radar.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteDataSource;
+
+/**
+ * Regularly checkpoints the WAL instead of leaving it to SQLite's auto-checkpoint, which only runs as part of a commit.
+ * <p>
+ * Checkpoints are PASSIVE, so they never wait for readers or writers. If nothing was written since the previous
+ * checkpoint, the DB is idle and the checkpoint is escalated to RESTART while holding the write lock. This way, the
+ * next writer starts at the beginning of the WAL again instead of appending to an ever longer WAL. Since RESTART waits
+ * for readers, it only gets a short busy timeout, so a long read makes it give up instead of blocking all writers.
+ * <p>
+ * See also https://www.sqlite.org/pragma.html#pragma_wal_checkpoint
+ */
+final class RepoDbCheckpointer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(RepoDbCheckpointer.class);
+
+    private record Result(boolean busy, int logFrames, int checkpointedFrames) {}
+
+    private final Path walPath;
+    private final SQLiteDataSource dataSource;
+    private final Lock writeLock;
+    private final Object fileLock;
+    private final ScheduledExecutorService executor;
+
+    private final Timer checkpointTimer;
+    private final Counter busyCheckpoints;
+    private volatile int lagFrames = 0;
+    private int previousLogFrames = -1;
+    private boolean restarted = false;
+
+    /**
+     * @param fileLock held while checkpointing so the DB file isn't replaced in the meantime
+     * @param delay time between checkpoints, or zero to not checkpoint at all
+     */
+    RepoDbCheckpointer(
+            String name,
+            Path path,
+            SQLiteDataSource dataSource,
+            Lock writeLock,
+            Object fileLock,
+            MetricRegistry metricRegistry,
+            Duration delay) {
+
+        this.walPath = path.resolveSibling(path.getFileName() + "-wal");
+        this.dataSource = dataSource;
+        this.writeLock = writeLock;
+        this.fileLock = fileLock;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("db-checkpoint-" + name).daemon().factory());
+
+        this.checkpointTimer = metricRegistry.timer(MetricRegistry.name("db", name, "checkpoint"));
+        this.busyCheckpoints = metricRegistry.counter(MetricRegistry.name("db", name, "checkpoint-busy"));
+        metricRegistry.register(MetricRegistry.name("db", name, "checkpoint-lag-frames"), (Gauge<Integer>)
+                () -> lagFrames);
+        metricRegistry.register(MetricRegistry.name("db", name, "wal-size-bytes"), (Gauge<Long>) this::walSize);
+
+        if (delay.isPositive()) {
+            long millis = delay.toMillis();
+            executor.scheduleWithFixedDelay(this::checkpoint, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private long walSize() {
+        try {
+            return Files.exists(walPath) ? Files.size(walPath) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Result run(Connection connection, String mode) {
+        Record record = DSL.using(connection, SQLDialect.SQLITE).fetchOne("PRAGMA wal_checkpoint(" + mode + ")");
+        return new Result(
+                record.get(0, Integer.class) != 0, record.get(1, Integer.class), record.get(2, Integer.class));
+    }
+
+    private void checkpoint() {
+        // Exceptions would cancel all future checkpoints
+        try {
+            synchronized (fileLock) {
+                checkpointImpl();
+            }
+        } catch (Exception e) {
+            log.error("Failed to checkpoint", e);
+        }
+    }
+
+    private void checkpointImpl() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+                Timer.Context ignored = checkpointTimer.time()) {
+            connection.unwrap(SQLiteConnection.class).setBusyTimeout((int)
+                    Constants.DB_CHECKPOINT_BUSY_TIMEOUT.toMillis());
+
+            Result result = run(connection, "PASSIVE");
+            boolean idle = result.logFrames() == previousLogFrames;
+            if (!idle) restarted = false;
+
+            // Restarting once per idle phase is enough
+            if (idle && !restarted && result.logFrames() > 0 && writeLock.tryLock()) {
+                try {
+                    result = run(connection, "RESTART");
+                } finally {
+                    writeLock.unlock();
+                }
+                restarted = !result.busy();
+            }
+
+            if (result.busy()) busyCheckpoints.inc();
+            previousLogFrames = result.logFrames();
+            lagFrames = Math.max(0, result.logFrames() - result.checkpointedFrames());
+            log.debug(
+                    "Checkpointed {} of {} frames{}",
+                    result.checkpointedFrames(),
+                    result.logFrames(),
+                    result.busy() ? " (busy)" : "");
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) log.warn("Timed out waiting for checkpoint");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.leanlang.radar.server.repos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+import org.jooq.DSLContext;
+import org.jooq.TransactionalRunnable;
+import org.jspecify.annotations.Nullable;
+import org.leanlang.radar.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Commits small write transactions that are submitted in quick succession together in a single DB transaction,
+ * so they share the cost of acquiring the write lock and committing to the WAL.
+ * <p>
+ * Each write runs in its own savepoint, so a failing write is rolled back without affecting the rest of its group.
+ * Writes are committed in the order they were submitted.
+ */
+final class RepoDbGroupCommit implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(RepoDbGroupCommit.class);
+
+    private record Write(TransactionalRunnable transaction, CompletableFuture<Void> result) {}
+
+    private final Supplier<DSLContext> dsl;
+    private final Lock lock;
+    private final BlockingQueue<Write> pending = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    // Guarded by this, so no write can be submitted after the writes still pending on close have been collected
+    private boolean closed = false;
+
+    RepoDbGroupCommit(String name, Supplier<DSLContext> dsl, Lock lock) {
+        this.dsl = dsl;
+        this.lock = lock;
+        this.thread = Thread.ofPlatform()
+                .name("db-group-commit-" + name)
+                .daemon()
+                .start(this::run);
+    }
+
+    synchronized CompletableFuture<Void> submit(TransactionalRunnable transaction) {
+        if (closed) throw new IllegalStateException("DB is closed");
+        Write write = new Write(transaction, new CompletableFuture<>());
+        pending.add(write);
+        return write.result();
+    }
+
+    private void run() {
+        List<Write> group = new ArrayList<>();
+        try {
+            while (true) {
+                group.add(pending.take());
+                long deadline = System.nanoTime() + Constants.DB_GROUP_COMMIT_WINDOW.toNanos();
+                while (group.size() < Constants.DB_GROUP_COMMIT_MAX_WRITES) {
+                    Write write = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (write == null) break;
+                    group.add(write);
+                }
+                commit(group);
+                group.clear();
+            }
+        } catch (InterruptedException ignored) {
+            // The DB is being closed, but writes that were already submitted, including the ones collected for the
+            // current group, should still end up in the DB.
+            pending.drainTo(group);
+            if (!group.isEmpty()) commit(group);
+        }
+    }
+
+    private void commit(List<Write> group) {
+        List<@Nullable RuntimeException> failures = new ArrayList<>();
+        // The DSL context may only be fetched after acquiring the lock since it may be replaced otherwise
+        lock.lock();
+        try {
+            dsl.get().transaction(ctx -> {
+                for (Write it : group) {
+                    try {
+                        // Nested transactions are savepoints
+                        ctx.dsl().transaction(it.transaction());
+                        failures.add(null);
+                    } catch (RuntimeException e) {
+                        failures.add(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Failed to commit group of {} writes", group.size(), e);
+            group.forEach(it -> it.result().completeExceptionally(e));
+            return;
+        } finally {
+            lock.unlock();
+        }
+
+        for (int i = 0; i < group.size(); i++) {
+            RuntimeException failure = failures.get(i);
+            if (failure == null) group.get(i).result().complete(null);
+            else group.get(i).result().completeExceptionally(failure);
+        }
+        log.debug("Committed group of {} writes", group.size());
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
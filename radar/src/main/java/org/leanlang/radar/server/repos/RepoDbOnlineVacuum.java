@@ -0,0 +1,129 @@
+package org.leanlang.radar.server.repos;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.jooq.DSLContext;
+
+/**
+ * SQL for {@link RepoDb#vacuumOnline()}.
+ * <p>
+ * While the DB is copied, temporary triggers record the primary key of every row that is inserted, updated or deleted
+ * in the {@code vacuum_changes} table. Afterwards, these rows are deleted from the copy and copied over again from the
+ * original DB. Tables without primary key are small and copied over completely.
+ * <p>
+ * Temporary triggers and tables only exist for the connection that created them, so all methods must be called with
+ * the writer connection. Since all writes go through that connection, the triggers see all changes.
+ */
+final class RepoDbOnlineVacuum {
+    private static final String CHANGES = "temp.vacuum_changes";
+    private static final String TRIGGER_PREFIX = "vacuum_";
+
+    private RepoDbOnlineVacuum() {}
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String literal(String string) {
+        return "'" + string.replace("'", "''") + "'";
+    }
+
+    private static List<String> tables(DSLContext dsl) {
+        return dsl.fetch("SELECT name FROM main.sqlite_schema WHERE type = 'table' AND name NOT LIKE 'sqlite%'")
+                .getValues(0, String.class);
+    }
+
+    private static List<String> primaryKey(DSLContext dsl, String table) {
+        return dsl.fetch("SELECT name FROM pragma_table_info(?) WHERE pk > 0 ORDER BY pk", table)
+                .getValues(0, String.class);
+    }
+
+    private static String keyExpression(String row, List<String> primaryKey) {
+        if (primaryKey.isEmpty()) return "NULL";
+        return primaryKey.stream()
+                .map(it -> row + "." + quote(it))
+                .collect(Collectors.joining(", ", "json_array(", ")"));
+    }
+
+    private static void createTrigger(DSLContext dsl, String table, String event, List<String> keys) {
+        String inserts = keys.stream()
+                .map(it -> "INSERT INTO " + CHANGES + " VALUES (" + literal(table) + ", " + it + "); ")
+                .collect(Collectors.joining());
+        dsl.execute("CREATE TEMP TRIGGER " + quote(TRIGGER_PREFIX + table + "_" + event.toLowerCase())
+                + " AFTER " + event + " ON main." + quote(table)
+                + " BEGIN " + inserts + "END");
+    }
+
+    static void trackChanges(DSLContext dsl) {
+        stopTrackingChanges(dsl);
+        dsl.execute("CREATE TEMP TABLE " + CHANGES + " (tbl TEXT NOT NULL, key TEXT)");
+        for (String table : tables(dsl)) {
+            List<String> primaryKey = primaryKey(dsl, table);
+            String oldKey = keyExpression("OLD", primaryKey);
+            String newKey = keyExpression("NEW", primaryKey);
+            createTrigger(dsl, table, "INSERT", List.of(newKey));
+            createTrigger(dsl, table, "UPDATE", List.of(oldKey, newKey));
+            createTrigger(dsl, table, "DELETE", List.of(oldKey));
+        }
+    }
+
+    static void stopTrackingChanges(DSLContext dsl) {
+        List<String> triggers = dsl.fetch(
+                        "SELECT name FROM sqlite_temp_schema WHERE type = 'trigger' AND name LIKE ?",
+                        TRIGGER_PREFIX + "%")
+                .getValues(0, String.class);
+        for (String trigger : triggers) dsl.execute("DROP TRIGGER temp." + quote(trigger));
+        dsl.execute("DROP TABLE IF EXISTS " + CHANGES);
+    }
+
+    /**
+     * Copy all rows that changed since {@link #trackChanges(DSLContext)} into the vacuumed DB.
+     *
+     * @return the number of recorded changes
+     */
+    static int copyChanges(DSLContext dsl, Path vacuumed) {
+        int changes = dsl.fetchOne("SELECT count(*) FROM " + CHANGES).get(0, Integer.class);
+        List<String> tables = dsl.fetch("SELECT DISTINCT tbl FROM " + CHANGES).getValues(0, String.class);
+
+        dsl.execute("ATTACH DATABASE ? AS vacuumed", vacuumed.toAbsolutePath().toString());
+        try {
+            // Otherwise, deleting a row would also delete the rows referencing it via ON DELETE CASCADE.
+            // Can't be changed inside a transaction.
+            dsl.execute("PRAGMA foreign_keys = OFF");
+            try {
+                dsl.transaction(ctx -> {
+                    for (String table : tables) copyChangesOfTable(ctx.dsl(), table);
+                });
+            } finally {
+                dsl.execute("PRAGMA foreign_keys = ON");
+            }
+        } finally {
+            dsl.execute("DETACH DATABASE vacuumed");
+        }
+
+        return changes;
+    }
+
+    private static void copyChangesOfTable(DSLContext dsl, String table) {
+        List<String> primaryKey = primaryKey(dsl, table);
+        if (primaryKey.isEmpty()) {
+            dsl.execute("DELETE FROM vacuumed." + quote(table));
+            dsl.execute("INSERT INTO vacuumed." + quote(table) + " SELECT * FROM main." + quote(table));
+            return;
+        }
+
+        String columns = primaryKey.stream().map(RepoDbOnlineVacuum::quote).collect(Collectors.joining(", ", "(", ")"));
+        String changedKeys = IntStream.range(0, primaryKey.size())
+                .mapToObj(i -> "json_extract(key, '$[" + i + "]')")
+                .collect(Collectors.joining(", ", "SELECT DISTINCT ", " FROM " + CHANGES + " WHERE tbl = ?"));
+
+        dsl.execute(
+                "DELETE FROM vacuumed." + quote(table) + " WHERE " + columns + " IN (" + changedKeys + ")", table);
+        dsl.execute(
+                "INSERT INTO vacuumed." + quote(table) + " SELECT * FROM main." + quote(table) + " WHERE " + columns
+                        + " IN (" + changedKeys + ")",
+                table);
+    }
+}
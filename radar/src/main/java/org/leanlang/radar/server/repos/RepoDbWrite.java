@@ -7,10 +7,12 @@ public final class RepoDbWrite implements AutoCloseable {
     private final DSLContext dsl;
     private final Lock lock;
 
+    /**
+     * @param lock the write lock, which must already be held by the current thread and is released on close
+     */
     public RepoDbWrite(DSLContext dsl, Lock lock) {
         this.dsl = dsl;
         this.lock = lock;
-        this.lock.lock();
     }
 
     @Override
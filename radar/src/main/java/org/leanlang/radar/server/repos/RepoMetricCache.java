@@ -0,0 +1,58 @@
+package org.leanlang.radar.server.repos;
+
+import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.jooq.Configuration;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * In-memory copy of the metrics table's names, ids and units,
+ * so that adding measurements doesn't require reading the entire table every time.
+ * <p>
+ * The cache must only be used and modified inside write transactions.
+ * Code that modifies the metrics table must keep the cache up to date or {@link #invalidate()} it.
+ */
+public final class RepoMetricCache {
+    private @Nullable Map<String, Integer> ids;
+    private @Nullable Map<String, @Nullable String> units;
+
+    private void load(Configuration ctx) {
+        if (ids != null && units != null) return;
+        Map<String, Integer> newIds = new HashMap<>();
+        Map<String, @Nullable String> newUnits = new HashMap<>();
+        ctx.dsl()
+                .select(METRICS.METRIC, METRICS.ID, METRICS.UNIT)
+                .from(METRICS)
+                .forEach(it -> {
+                    newIds.put(it.value1(), it.value2());
+                    newUnits.put(it.value1(), it.value3());
+                });
+        ids = newIds;
+        units = newUnits;
+    }
+
+    /**
+     * @return a mutable map from metric name to id, loading it from the DB if necessary.
+     *   Modifications to the map must match modifications to the metrics table.
+     */
+    public synchronized Map<String, Integer> ids(Configuration ctx) {
+        load(ctx);
+        return ids;
+    }
+
+    /**
+     * @return a mutable map from metric name to unit, loading it from the DB if necessary.
+     *   Modifications to the map must match modifications to the metrics table.
+     */
+    public synchronized Map<String, @Nullable String> units(Configuration ctx) {
+        load(ctx);
+        return units;
+    }
+
+    public synchronized void invalidate() {
+        ids = null;
+        units = null;
+    }
+}
@@ -1,21 +1,37 @@
 package org.leanlang.radar.server.repos;
 
+import com.codahale.metrics.health.HealthCheck;
 import io.dropwizard.core.setup.Environment;
 import io.dropwizard.lifecycle.Managed;
 import jakarta.ws.rs.client.Client;
 import java.io.IOException;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.leanlang.radar.server.config.Dirs;
 import org.leanlang.radar.server.config.ServerConfigRepo;
 import org.leanlang.radar.server.config.credentials.CredentialsByRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public final class Repos implements Managed {
+    private static final Logger log = LoggerFactory.getLogger(Repos.class);
+
     private final List<String> repoNames;
-    private final Map<String, Repo> repos;
+    private final Map<String, Repo> repos = new ConcurrentHashMap<>();
 
+    /**
+     * Open all repos in parallel. Opening a repo may involve migrating its DB, which can take a while.
+     * <p>
+     * Once all repos are open, every repo gets a health check that reports whether its DB is fully migrated, its
+     * connections are open and it can be read from.
+     */
     public Repos(
             Environment environment,
             Client client,
@@ -24,19 +40,53 @@ public final class Repos implements Managed {
             List<ServerConfigRepo> repoList)
             throws IOException {
 
-        repoNames = new ArrayList<>();
-        repos = new HashMap<>();
-        for (ServerConfigRepo repo : repoList) {
-            repoNames.add(repo.name);
-            repos.put(
-                    repo.name,
-                    new Repo(
+        repoNames = repoList.stream().map(it -> it.name).toList();
+
+        int threads = Math.max(1, Math.min(repoList.size(), Runtime.getRuntime().availableProcessors()));
+        Map<String, Future<Repo>> futures = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(
+                threads, Thread.ofPlatform().name("repo-open-", 0).factory())) {
+            for (ServerConfigRepo repo : repoList) {
+                futures.put(repo.name, executor.submit(() -> {
+                    Instant start = Instant.now();
+                    Repo result = new Repo(
                             environment,
                             client,
                             dirs,
                             repo,
                             credentials.github().get(repo.name),
-                            credentials.zulip().get(repo.name)));
+                            credentials.zulip().get(repo.name));
+                    log.info("Opened repo {} in {} ms", repo.name, start.until(Instant.now()).toMillis());
+                    return result;
+                }));
+            }
+        } // Waits for all repos
+
+        List<Throwable> failures = new ArrayList<>();
+        futures.forEach((name, future) -> {
+            if (future.state() == Future.State.SUCCESS) {
+                repos.put(name, future.resultNow());
+            } else {
+                log.error("Failed to open repo {}", name, future.exceptionNow());
+                failures.add(future.exceptionNow());
+            }
+        });
+
+        if (!failures.isEmpty()) {
+            stop();
+            IOException e = new IOException("Failed to open " + failures.size() + " repo(s)");
+            failures.forEach(e::addSuppressed);
+            throw e;
+        }
+
+        for (String name : repoNames) {
+            Repo repo = repo(name);
+            environment.healthChecks().register("repo-" + name, new HealthCheck() {
+                @Override
+                protected Result check() {
+                    return repo.db().checkHealth().map(Result::unhealthy).orElseGet(Result::healthy);
+                }
+            });
         }
     }
 
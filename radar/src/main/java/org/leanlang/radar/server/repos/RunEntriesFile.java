@@ -0,0 +1,79 @@
+package org.leanlang.radar.server.repos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.leanlang.radar.runner.supervisor.JsonRunResultEntry;
+
+/**
+ * Collects the entries of a run in a temporary file next to its log, so a run with millions of entries never has to
+ * fit into memory. The entries are read back in batches once the run is added to the DB. The file is deleted on close.
+ */
+public final class RunEntriesFile implements AutoCloseable {
+    @FunctionalInterface
+    public interface BatchConsumer {
+        void accept(List<JsonRunResultEntry> batch) throws IOException;
+    }
+
+    private final Path file;
+    private final DataOutputStream out;
+    private int size = 0;
+
+    RunEntriesFile(Path dir, String run) throws IOException {
+        Files.createDirectories(dir);
+        this.file = Files.createTempFile(dir, run, ".entries.tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+    }
+
+    public void add(JsonRunResultEntry entry) throws IOException {
+        out.writeUTF(entry.metric());
+        out.writeFloat(entry.value());
+        out.writeBoolean(entry.unit().isPresent());
+        if (entry.unit().isPresent()) out.writeUTF(entry.unit().get());
+        size++;
+    }
+
+    public void addAll(List<JsonRunResultEntry> entries) throws IOException {
+        for (JsonRunResultEntry entry : entries) {
+            add(entry);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Read all entries back in the order they were added, in batches of at most {@code batchSize} entries.
+     */
+    public void forEachBatch(int batchSize, BatchConsumer consumer) throws IOException {
+        out.flush();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            List<JsonRunResultEntry> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < size; i++) {
+                String metric = in.readUTF();
+                float value = in.readFloat();
+                Optional<String> unit = in.readBoolean() ? Optional.of(in.readUTF()) : Optional.empty();
+                batch.add(new JsonRunResultEntry(metric, value, unit));
+                if (batch.size() == batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) consumer.accept(batch);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        Files.deleteIfExists(file);
+    }
+}
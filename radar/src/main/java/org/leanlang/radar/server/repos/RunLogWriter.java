@@ -0,0 +1,47 @@
+package org.leanlang.radar.server.repos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import org.leanlang.radar.runner.supervisor.JsonOutputLine;
+
+/**
+ * Writes a run log line by line into a temporary file next to its final location.
+ * The log only replaces any existing log once {@link #commit()} is called,
+ * so an aborted upload never leaves a partially written log behind.
+ */
+public final class RunLogWriter implements AutoCloseable {
+    private final ObjectMapper mapper;
+    private final Path file;
+    private final Path tmpFile;
+    private final BufferedWriter writer;
+    private boolean committed = false;
+
+    RunLogWriter(ObjectMapper mapper, Path file) throws IOException {
+        this.mapper = mapper;
+        this.file = file;
+        Files.createDirectories(file.getParent());
+        this.tmpFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        this.writer = Files.newBufferedWriter(tmpFile);
+    }
+
+    public void write(JsonOutputLine line) throws IOException {
+        writer.write(mapper.writeValueAsString(line));
+        writer.newLine();
+    }
+
+    public void commit() throws IOException {
+        writer.close();
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        if (!committed) Files.deleteIfExists(tmpFile);
+    }
+}
@@ -1,15 +1,31 @@
 package org.leanlang.radar.server.runners;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
+import org.leanlang.radar.server.config.ServerConfigPool;
 import org.leanlang.radar.server.config.ServerConfigRunner;
 
 public final class Runners {
     private final Map<String, Runner> runners;
+    private final List<ServerConfigPool> pools;
 
-    public Runners(List<ServerConfigRunner> runnerList) {
+    public Runners(List<ServerConfigRunner> runnerList, List<ServerConfigPool> pools) {
         runners = runnerList.stream().map(Runner::new).collect(Collectors.toMap(Runner::name, it -> it));
+        this.pools = pools;
+
+        for (ServerConfigPool pool : pools) {
+            if (runners.containsKey(pool.name())) {
+                throw new IllegalArgumentException("Pool " + pool.name() + " has the same name as a runner");
+            }
+            for (String runner : pool.runners()) {
+                if (!runners.containsKey(runner)) {
+                    throw new IllegalArgumentException("Pool " + pool.name() + " contains unknown runner " + runner);
+                }
+            }
+        }
     }
 
     public List<Runner> runners() {
@@ -31,4 +47,30 @@ public final class Runners {
         }
         return runner;
     }
+
+    /**
+     * @return how many runners can work on runs for a target at the same time
+     */
+    public int capacity(String target) {
+        for (ServerConfigPool pool : pools) {
+            if (pool.name().equals(target)) return pool.runners().size();
+        }
+        return 1;
+    }
+
+    /**
+     * @param systemConfigurationId the system configuration the runner currently reports
+     * @return the runner's name followed by the names of all pools whose jobs the runner may take
+     */
+    public List<String> targets(String runner, Optional<String> systemConfigurationId) {
+        List<String> result = new ArrayList<>();
+        result.add(runner);
+        for (ServerConfigPool pool : pools) {
+            if (!pool.runners().contains(runner)) continue;
+            String required = pool.systemConfigurationId();
+            if (required != null && !systemConfigurationId.equals(Optional.of(required))) continue;
+            result.add(pool.name());
+        }
+        return result;
+    }
 }
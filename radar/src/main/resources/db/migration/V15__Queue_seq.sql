@@ -0,0 +1,3 @@
+-- Orders queue entries that were bumped at the same time, e.g. commits enqueued together in a single transaction.
+ALTER TABLE queue
+    ADD COLUMN seq INT NOT NULL DEFAULT 0;
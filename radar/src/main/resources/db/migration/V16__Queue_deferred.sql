@@ -0,0 +1,10 @@
+CREATE TABLE queue_deferred (
+    chash TEXT NOT NULL PRIMARY KEY
+        REFERENCES commits ON DELETE CASCADE
+) STRICT;
+
+-- Commits enqueued by bisection, which must not be deferred again.
+CREATE TABLE queue_bisected (
+    chash TEXT NOT NULL PRIMARY KEY
+        REFERENCES commits ON DELETE CASCADE
+) STRICT;
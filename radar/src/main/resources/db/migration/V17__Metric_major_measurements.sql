@@ -0,0 +1,69 @@
+-- Metrics get an integer id so measurements don't have to repeat the metric name in every row.
+CREATE TABLE metrics_new (
+    id              INTEGER NOT NULL PRIMARY KEY,
+    metric          TEXT    NOT NULL UNIQUE,
+    unit            TEXT,
+    first_seen_time TEXT    NOT NULL DEFAULT '1970-01-01 00:00:00+00:00'
+) STRICT;
+
+-- Commits get an integer id as well once they have measurements. Ids are handed out in history order, so ordering
+-- measurements by commit id mostly orders them by history position.
+CREATE TABLE commit_ids (
+    id    INTEGER NOT NULL PRIMARY KEY,
+    chash TEXT    NOT NULL UNIQUE REFERENCES commits ON DELETE CASCADE
+) STRICT;
+
+-- Measurements are clustered by metric and then commit, which is how most queries access them.
+-- Per-commit lookups use the covering index on commit_id instead.
+CREATE TABLE measurements_new (
+    metric_id INT  NOT NULL,
+    commit_id INT  NOT NULL,
+    value     REAL NOT NULL,
+    source    TEXT,
+    PRIMARY KEY (metric_id, commit_id),
+    FOREIGN KEY (commit_id) REFERENCES commit_ids (id) ON DELETE CASCADE,
+    FOREIGN KEY (metric_id) REFERENCES metrics_new (id) ON DELETE CASCADE
+) STRICT, WITHOUT ROWID;
+
+CREATE TABLE quantile_new (
+    metric TEXT NOT NULL PRIMARY KEY REFERENCES metrics_new (metric),
+    value  REAL NOT NULL
+) STRICT;
+
+INSERT INTO metrics_new (metric, unit, first_seen_time)
+SELECT metric, unit, first_seen_time
+FROM metrics
+ORDER BY metric;
+
+INSERT INTO commit_ids (chash)
+SELECT commits.chash
+FROM commits
+         LEFT JOIN history ON history.chash = commits.chash
+WHERE commits.chash IN (SELECT chash FROM measurements)
+ORDER BY history.position IS NULL, history.position, commits.chash;
+
+-- Inserting in primary key order appends to the table instead of splitting pages all over it
+INSERT INTO measurements_new
+SELECT metrics_new.id, commit_ids.id, measurements.value, measurements.source
+FROM measurements
+         JOIN metrics_new ON metrics_new.metric = measurements.metric
+         JOIN commit_ids ON commit_ids.chash = measurements.chash
+ORDER BY metrics_new.id, commit_ids.id;
+
+INSERT INTO quantile_new
+SELECT metric, value
+FROM quantile;
+
+DROP TABLE quantile;
+DROP TABLE measurements;
+DROP TABLE metrics;
+
+ALTER TABLE metrics_new
+    RENAME TO metrics;
+ALTER TABLE measurements_new
+    RENAME TO measurements;
+ALTER TABLE quantile_new
+    RENAME TO quantile;
+
+-- Per-commit reads only need the index instead of looking up every row in the table
+CREATE INDEX measurements_commit_id ON measurements (commit_id, metric_id, value, source);
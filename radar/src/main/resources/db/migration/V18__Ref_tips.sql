@@ -0,0 +1,9 @@
+CREATE TABLE ref_tips (
+    ref   TEXT NOT NULL PRIMARY KEY,
+    chash TEXT NOT NULL
+) STRICT;
+
+-- The config the history was last computed with, see Repo.historyConfig().
+CREATE TABLE history_config (
+    config TEXT NOT NULL
+) STRICT;
@@ -0,0 +1,24 @@
+-- Measurements of old commits can be moved out of the measurements table into archive files, see RepoArchive.
+CREATE TABLE archives (
+    id   INTEGER NOT NULL PRIMARY KEY,
+    file TEXT    NOT NULL UNIQUE
+) STRICT;
+
+CREATE TABLE archived_commits (
+    chash      TEXT NOT NULL PRIMARY KEY,
+    archive_id INT  NOT NULL,
+    FOREIGN KEY (chash) REFERENCES commits (chash) ON DELETE CASCADE,
+    FOREIGN KEY (archive_id) REFERENCES archives (id)
+) STRICT;
+
+CREATE INDEX archived_commits_archive_id ON archived_commits (archive_id);
+
+-- Archive files contain metric names, which are mapped to the current metrics here.
+-- This way, renaming and deleting metrics also affects archived measurements.
+CREATE TABLE archived_metrics (
+    name      TEXT NOT NULL PRIMARY KEY,
+    metric_id INT  NOT NULL,
+    FOREIGN KEY (metric_id) REFERENCES metrics (id) ON DELETE CASCADE
+) STRICT;
+
+CREATE INDEX archived_metrics_metric_id ON archived_metrics (metric_id);
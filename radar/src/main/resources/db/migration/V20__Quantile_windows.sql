@@ -0,0 +1,16 @@
+-- The values of each metric over the latest commits of the history, see QuantileWindow.
+CREATE TABLE quantile_windows (
+    metric_id INTEGER NOT NULL PRIMARY KEY,
+    data      BLOB    NOT NULL,
+    FOREIGN KEY (metric_id) REFERENCES metrics (id) ON DELETE CASCADE
+) STRICT;
+
+-- Rebuild all quantiles and their windows on the next update
+DELETE FROM quantile_last_updated;
+
+-- Runs whose measurements the busser has yet to add to the quantile windows.
+CREATE TABLE quantile_pending (
+    chash TEXT NOT NULL REFERENCES commits ON DELETE CASCADE,
+    name  TEXT NOT NULL,
+    PRIMARY KEY (chash, name)
+) STRICT;
@@ -0,0 +1,24 @@
+-- Stored commit comparisons, see CommitComparisonStore.
+CREATE TABLE comparisons (
+    chash_first      TEXT    NOT NULL,
+    chash_second     TEXT    NOT NULL,
+    fingerprint      TEXT    NOT NULL,
+    quantile_version INTEGER NOT NULL,
+    created_time     TEXT    NOT NULL,
+    expires_time     TEXT,
+    data             BLOB    NOT NULL,
+    PRIMARY KEY (chash_first, chash_second)
+) STRICT;
+
+CREATE INDEX comparisons_chash_second ON comparisons (chash_second);
+
+-- A single row.
+-- The generation changes whenever stored comparisons are invalidated,
+-- the quantile version changes whenever the quantiles change.
+CREATE TABLE comparison_versions (
+    generation       INTEGER NOT NULL,
+    quantile_version INTEGER NOT NULL
+) STRICT;
+
+INSERT INTO comparison_versions (generation, quantile_version)
+VALUES (0, 0);
@@ -0,0 +1,132 @@
+package org.leanlang.radar.server.compare;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.leanlang.radar.server.repos.Repo;
+import org.leanlang.radar.server.repos.TestRepos;
+
+class CommitComparisonStoreTest {
+    private static final JsonCommitComparison COMPARISON = new JsonCommitComparison(
+            true, List.of("warning"), List.of(), List.of(), List.of(), List.of(), List.of(), List.of());
+
+    @TempDir
+    Path dir;
+
+    private Repo repo;
+
+    @BeforeEach
+    void openRepo() throws IOException {
+        repo = TestRepos.open(dir, "repo", List.of());
+    }
+
+    @AfterEach
+    void closeRepo() {
+        repo.close();
+    }
+
+    private CommitComparerData data(boolean enqueued, Optional<Instant> newMetricsCutoff, List<MetricInfo> metrics) {
+        return new CommitComparerData(
+                List.of(),
+                List.of(),
+                enqueued,
+                false,
+                metrics,
+                List.of(),
+                newMetricsCutoff,
+                Optional.empty(),
+                0,
+                0,
+                0,
+                false,
+                Map.of(),
+                Map.of(),
+                CommitComparisonStore.generation(repo.db().read().dsl()),
+                CommitComparisonStore.quantileVersion(repo.db().read().dsl()));
+    }
+
+    private CommitComparerData data() {
+        return data(false, Optional.empty(), List.of());
+    }
+
+    private void put(CommitComparerData data, String chashFirst, String chashSecond) {
+        CommitComparisonStore.put(repo, data, chashFirst, chashSecond, COMPARISON);
+        // Grouped writes are committed in order, so this waits for the comparison to be stored
+        repo.db().writeTransactionGrouped(ctx -> {}).join();
+    }
+
+    private Optional<JsonCommitComparison> get(String chashFirst, String chashSecond) {
+        return CommitComparisonStore.get(repo, repo, chashFirst, chashSecond);
+    }
+
+    @Test
+    void storesComparisons() {
+        assertEquals(Optional.empty(), get("a", "b"));
+        put(data(), "a", "b");
+        assertEquals(Optional.of(COMPARISON), get("a", "b"));
+        assertEquals(Optional.empty(), get("b", "a"));
+    }
+
+    @Test
+    void skipsEnqueuedCommits() {
+        put(data(true, Optional.empty(), List.of()), "a", "b");
+        assertEquals(Optional.empty(), get("a", "b"));
+    }
+
+    @Test
+    void invalidatesComparisonsOfCommits() {
+        put(data(), "a", "b");
+        put(data(), "b", "c");
+        put(data(), "c", "d");
+
+        repo.db().writeTransaction(ctx -> CommitComparisonStore.invalidate(ctx, List.of("b")));
+        assertEquals(Optional.empty(), get("a", "b"));
+        assertEquals(Optional.empty(), get("b", "c"));
+        assertEquals(Optional.of(COMPARISON), get("c", "d"));
+
+        repo.db().writeTransaction(CommitComparisonStore::invalidateAll);
+        assertEquals(Optional.empty(), get("c", "d"));
+    }
+
+    @Test
+    void skipsComparisonsOfOutdatedData() {
+        CommitComparerData data = data();
+        repo.db().writeTransaction(ctx -> CommitComparisonStore.invalidate(ctx, List.of("x")));
+        put(data, "a", "b");
+        assertEquals(Optional.empty(), get("a", "b"));
+
+        put(data(), "a", "b");
+        assertEquals(Optional.of(COMPARISON), get("a", "b"));
+    }
+
+    @Test
+    void hidesComparisonsWithOldQuantiles() {
+        put(data(), "a", "b");
+        repo.db().writeTransaction(CommitComparisonStore::increaseQuantileVersion);
+        assertEquals(Optional.empty(), get("a", "b"));
+
+        put(data(), "a", "b");
+        assertEquals(Optional.of(COMPARISON), get("a", "b"));
+    }
+
+    @Test
+    void expiresComparisonsWithNewMetrics() {
+        Instant longAgo = Instant.parse("2020-01-01T00:00:00Z");
+        MetricInfo metric = new MetricInfo("metric", Optional.empty(), longAgo, Optional.empty());
+        put(data(false, Optional.of(longAgo), List.of(metric)), "a", "b");
+        assertEquals(Optional.empty(), get("a", "b"));
+
+        MetricInfo recentMetric = new MetricInfo("metric", Optional.empty(), Instant.now(), Optional.empty());
+        put(data(false, Optional.of(longAgo), List.of(recentMetric)), "a", "b");
+        assertEquals(Optional.of(COMPARISON), get("a", "b"));
+    }
+}
@@ -0,0 +1,128 @@
+package org.leanlang.radar.server.compare;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class QuantileWindowTest {
+    private static QuantileWindow windowOf(float... values) {
+        QuantileWindow window = new QuantileWindow();
+        for (int i = 0; i < values.length; i++) window.add(i, values[i]);
+        return window;
+    }
+
+    /**
+     * The quantile as computed by sorting the absolute differences.
+     */
+    private static float sortedQuantile(float[] values) {
+        float[] deltas = new float[values.length - 1];
+        for (int i = 0; i < deltas.length; i++) deltas[i] = Math.abs(values[i + 1] - values[i]);
+        Arrays.sort(deltas);
+
+        int top = deltas.length - 1;
+        float x = QuantileWindow.QUANTILE * top;
+        int index = Math.round(x);
+        if (index >= top) return deltas[top];
+        float weight = x - index;
+        return deltas[index] * (1 - weight) + deltas[index + 1] * weight;
+    }
+
+    @Test
+    void addKeepsFirstValue() {
+        QuantileWindow window = new QuantileWindow();
+        assertTrue(window.add(1, 10));
+        assertFalse(window.add(1, 20));
+        assertEquals(1, window.size());
+
+        QuantileWindow expected = new QuantileWindow();
+        expected.add(1, 10);
+        assertArrayEquals(expected.encode(), window.encode());
+    }
+
+    @Test
+    void addSortsByPosition() {
+        QuantileWindow window = new QuantileWindow();
+        for (int position : new int[] {5, 1, 3, 0, 4, 2, 40, 20, 30, 10}) window.add(position, position);
+        QuantileWindow expected = new QuantileWindow();
+        for (int position : new int[] {0, 1, 2, 3, 4, 5, 10, 20, 30, 40}) expected.add(position, position);
+        assertArrayEquals(expected.encode(), window.encode());
+    }
+
+    @Test
+    void addAllOnlyAddsMissingPositions() {
+        QuantileWindow window = windowOf(1, 2, 3);
+        QuantileWindow other = new QuantileWindow();
+        other.add(1, 100);
+        other.add(5, 5);
+
+        assertTrue(window.addAll(other));
+        assertFalse(window.addAll(other));
+        assertEquals(4, window.size());
+
+        QuantileWindow expected = windowOf(1, 2, 3);
+        expected.add(5, 5);
+        assertArrayEquals(expected.encode(), window.encode());
+    }
+
+    @Test
+    void removeBefore() {
+        QuantileWindow window = new QuantileWindow();
+        for (int position = 0; position < 20; position += 2) window.add(position, position);
+
+        window.removeBefore(-1);
+        assertEquals(10, window.size());
+        window.removeBefore(5);
+        assertEquals(7, window.size());
+        window.removeBefore(6);
+        assertEquals(7, window.size());
+        window.removeBefore(100);
+        assertEquals(0, window.size());
+
+        // The window can grow again after being emptied
+        assertTrue(window.add(100, 1));
+        assertEquals(1, window.size());
+    }
+
+    @Test
+    void encodeRoundTrip() {
+        QuantileWindow window = new QuantileWindow();
+        for (int i = 0; i < 100; i++) window.add(3 * i, i * 0.5f);
+        byte[] encoded = window.encode();
+        QuantileWindow decoded = QuantileWindow.decode(encoded);
+        assertEquals(window.size(), decoded.size());
+        assertArrayEquals(encoded, decoded.encode());
+
+        QuantileWindow empty = QuantileWindow.decode(new QuantileWindow().encode());
+        assertEquals(0, empty.size());
+        assertTrue(empty.add(0, 0));
+        assertTrue(empty.add(1, 1));
+    }
+
+    @Test
+    void quantileNeedsTenDifferences() {
+        assertTrue(Float.isNaN(new QuantileWindow().quantile()));
+        assertTrue(Float.isNaN(windowOf(0, 1, 2, 3, 4, 5, 6, 7, 8, 9).quantile()));
+        assertEquals(1, windowOf(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10).quantile());
+    }
+
+    @Test
+    void quantileMatchesSorting() {
+        Random random = new Random(0);
+        for (int size = 11; size < 300; size += 7) {
+            float[] values = new float[size];
+            for (int i = 0; i < size; i++) {
+                // Few distinct values so that ties are common
+                values[i] = size % 2 == 0 ? random.nextInt(5) : random.nextFloat() * 1000;
+            }
+            QuantileWindow window = windowOf(values);
+            assertEquals(sortedQuantile(values), window.quantile(), 1e-3, "size " + size);
+            // Computing the quantile must not modify the window
+            assertEquals(sortedQuantile(values), window.quantile(), 1e-3, "size " + size);
+        }
+    }
+}
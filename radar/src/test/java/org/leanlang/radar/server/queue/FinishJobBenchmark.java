@@ -0,0 +1,106 @@
+package org.leanlang.radar.server.queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.leanlang.radar.codegen.jooq.Tables.COMMITS;
+import static org.leanlang.radar.codegen.jooq.Tables.MEASUREMENTS;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.leanlang.radar.runner.supervisor.JsonRunResult;
+import org.leanlang.radar.runner.supervisor.JsonRunResultEntry;
+import org.leanlang.radar.server.config.ServerConfigRepoRun;
+import org.leanlang.radar.server.repos.CommitIds;
+import org.leanlang.radar.server.repos.Repo;
+import org.leanlang.radar.server.repos.Repos;
+import org.leanlang.radar.server.repos.TestRepos;
+import org.leanlang.radar.server.runners.Runners;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times adding the measurements of a finished job via {@link Queue#finishJob(String, String, JsonRunResult)}.
+ * <p>
+ * The first job of a repo adds all of its metrics to the metrics table, later jobs only add measurements. Both cases
+ * are timed separately. Skipped unless enabled explicitly, since the larger sizes take a while:
+ * <pre>
+ * mvn test -Dtest=FinishJobBenchmark -Dradar.benchmark=true
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "radar.benchmark", matches = "true")
+class FinishJobBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(FinishJobBenchmark.class);
+    private static final int COMMIT_COUNT = 3;
+
+    @TempDir
+    Path dir;
+
+    private static JsonRunResult runResult(String chash, List<JsonRunResultEntry> entries) {
+        Instant now = Instant.now();
+        return new JsonRunResult(
+                "repo",
+                chash,
+                "bench",
+                "run",
+                "run.sh",
+                now,
+                now,
+                Optional.empty(),
+                Optional.empty(),
+                0,
+                Optional.empty(),
+                entries,
+                List.of());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {10_000, 100_000, 1_000_000})
+    void finishJob(int entries) throws IOException {
+        List<JsonRunResultEntry> runEntries = new ArrayList<>();
+        for (int i = 0; i < entries; i++) {
+            runEntries.add(new JsonRunResultEntry("metric/" + i, i, Optional.of("s")));
+        }
+
+        Repos repos = TestRepos.openAll(
+                dir, List.of(TestRepos.config("repo", List.of(new ServerConfigRepoRun("run", "run.sh", "runner")))));
+        try {
+            Repo repo = repos.repo("repo");
+            repo.db().writeTransaction(ctx -> {
+                for (int i = 0; i < COMMIT_COUNT; i++) {
+                    ctx.dsl().insertInto(COMMITS).set(TestRepos.commit("commit" + i, Instant.now())).execute();
+                }
+            });
+            Queue queue = new Queue(repos, new Runners(List.of(), List.of()), false);
+
+            for (int i = 0; i < COMMIT_COUNT; i++) {
+                String chash = "commit" + i;
+                Instant start = Instant.now();
+                queue.finishJob("repo", "runner", runResult(chash, runEntries));
+                Duration time = start.until(Instant.now());
+
+                log.info(
+                        "{} entries, {}: {} ms, {} ns/entry",
+                        entries,
+                        i == 0 ? "new metrics" : "known metrics",
+                        time.toMillis(),
+                        time.toNanos() / entries);
+                assertEquals(
+                        entries,
+                        repo.db()
+                                .read()
+                                .dsl()
+                                .fetchCount(MEASUREMENTS, MEASUREMENTS.COMMIT_ID.eq(CommitIds.of(chash))));
+            }
+        } finally {
+            repos.stop();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.leanlang.radar.server.queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.leanlang.radar.server.config.ServerConfigRepoRun;
+import org.leanlang.radar.server.repos.Repo;
+import org.leanlang.radar.server.repos.TestRepos;
+
+class JobIndexTest {
+    private static final List<String> TARGETS = List.of("pool");
+    private static final Duration LEASE = Duration.ofMinutes(1);
+    private static final Instant T0 = Instant.parse("2026-01-01T00:00:00Z");
+
+    @TempDir
+    static Path dir;
+
+    private static Repo repo;
+
+    @BeforeAll
+    static void openRepo() throws IOException {
+        repo = TestRepos.open(
+                dir,
+                "repo",
+                List.of(new ServerConfigRepoRun("a", "a.sh", "pool"), new ServerConfigRepoRun("b", "b.sh", "pool")));
+    }
+
+    @AfterAll
+    static void closeRepo() {
+        repo.close();
+    }
+
+    private static JobIndex index() {
+        return new JobIndex(List.of(repo), new RunDurations(), false, Instant.MIN);
+    }
+
+    private static @Nullable String claim(JobIndex index, String runner, Instant now) {
+        return name(index.claim(runner, TARGETS, now, LEASE));
+    }
+
+    private static @Nullable String name(Optional<JobIndex.Job> job) {
+        return job.map(it -> it.chash() + "/" + it.run().name()).orElse(null);
+    }
+
+    @Test
+    void claimsJobsInQueueOrder() {
+        JobIndex index = index();
+        index.putTask(repo, "c1", 0, T0, 0, Set.of());
+        index.putTask(repo, "c2", 1, T0.plusSeconds(1), 0, Set.of());
+        index.putTask(repo, "c3", 0, T0.minusSeconds(1), 0, Set.of());
+
+        // Higher priority first, then earlier bump, then run order
+        assertEquals("c2/a", claim(index, "r1", T0));
+        assertEquals("c2/b", claim(index, "r2", T0));
+        assertEquals("c3/a", claim(index, "r3", T0));
+        assertEquals("c3/b", claim(index, "r4", T0));
+        assertEquals("c1/a", claim(index, "r5", T0));
+        assertEquals("c1/b", claim(index, "r6", T0));
+        assertNull(claim(index, "r7", T0));
+    }
+
+    @Test
+    void skipsFinishedAndRemovedRuns() {
+        JobIndex index = index();
+        index.putTask(repo, "c1", 0, T0, 0, Set.of("a"));
+        index.putTask(repo, "c2", 0, T0.plusSeconds(1), 0, Set.of());
+        index.putTask(repo, "c3", 0, T0.plusSeconds(2), 0, Set.of());
+        index.removeRun("repo", "c2", "a");
+        index.removeTask("repo", "c3");
+
+        assertEquals("c1/b", claim(index, "r1", T0));
+        assertEquals("c2/b", claim(index, "r2", T0));
+        assertNull(claim(index, "r3", T0));
+    }
+
+    @Test
+    void tasksBumpedTogetherKeepTheirOrder() {
+        JobIndex index = index();
+        index.putTask(repo, "c2", 0, T0, 0, Set.of("b"));
+        index.putTask(repo, "c1", 0, T0, 1, Set.of("b"));
+        index.putTask(repo, "c3", 0, T0, 2, Set.of("b"));
+
+        assertEquals("c2/a", claim(index, "r1", T0));
+        assertEquals("c1/a", claim(index, "r2", T0));
+        assertEquals("c3/a", claim(index, "r3", T0));
+    }
+
+    @Test
+    void bumpedTasksMoveToTheFront() {
+        JobIndex index = index();
+        index.putTask(repo, "c1", 0, T0, 0, Set.of("b"));
+        index.putTask(repo, "c2", 0, T0.plusSeconds(1), 0, Set.of("b"));
+        index.bumpTask("repo", "c2", 1, T0.plusSeconds(2), 0);
+
+        assertEquals("c2/a", claim(index, "r1", T0));
+        assertEquals("c1/a", claim(index, "r2", T0));
+    }
+
+    @Test
+    void leasedJobsBecomeAvailableOnceTheLeaseExpires() {
+        JobIndex index = index();
+        index.putTask(repo, "c1", 0, T0, 0, Set.of("b"));
+
+        assertEquals("c1/a", claim(index, "r1", T0));
+        assertNull(claim(index, "r2", T0));
+        assertNull(claim(index, "r2", T0.plus(LEASE).minusSeconds(1)));
+        assertEquals("c1/a", claim(index, "r2", T0.plus(LEASE).plusSeconds(1)));
+    }
+
+    @Test
+    void renewedLeasesDontExpire() {
+        JobIndex index = index();
+        index.putTask(repo, "c1", 0, T0, 0, Set.of("b"));
+
+        assertEquals("c1/a", claim(index, "r1", T0));
+        index.renewLease(new RunId("repo", "c1", "a"), "r1", T0.plus(LEASE).plus(LEASE));
+        assertNull(claim(index, "r2", T0.plus(LEASE).plusSeconds(1)));
+    }
+
+    @Test
+    void claimingReleasesTheRunnersPreviousLease() {
+        JobIndex index = index();
+        index.putTask(repo, "c1", 0, T0, 0, Set.of("b"));
+
+        assertEquals("c1/a", claim(index, "r1", T0));
+        // The runner no longer works on the job, e.g. because it was restarted
+        assertNull(name(index.claim("r1", List.of(), T0, LEASE)));
+        assertEquals("c1/a", claim(index, "r2", T0));
+    }
+
+    @Test
+    void leasesAreRebuiltBeforeClaimsStart() {
+        JobIndex index = new JobIndex(List.of(repo), new RunDurations(), false, T0.plusSeconds(10));
+        index.putTask(repo, "c1", 0, T0, 0, Set.of("b"));
+        assertNull(claim(index, "r2", T0));
+
+        // The runner was working on the run before the restart and reports it in its status
+        index.renewLease(new RunId("repo", "c1", "a"), "r1", T0.plus(LEASE));
+        assertNull(claim(index, "r2", T0.plusSeconds(11)));
+        assertTrue(index.hasLease("repo", "c1", T0.plusSeconds(11)));
+
+        index.removeTask("repo", "c1");
+        assertFalse(index.hasLease("repo", "c1", T0.plusSeconds(11)));
+        assertEquals(Map.of(), index.leases(T0.plusSeconds(11)));
+    }
+
+    @Test
+    void waitingRunnersAreWokenUpByNewTasks() throws Exception {
+        JobIndex index = index();
+        CompletableFuture<Optional<JobIndex.Job>> job = CompletableFuture.supplyAsync(() -> {
+            try {
+                return index.awaitClaim("r1", TARGETS, LEASE, Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(100);
+        index.putTask(repo, "c1", 0, Instant.now(), 0, Set.of("b"));
+        assertEquals("c1/a", name(job.get()));
+    }
+}
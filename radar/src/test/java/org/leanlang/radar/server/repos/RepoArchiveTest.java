@@ -0,0 +1,139 @@
+package org.leanlang.radar.server.repos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.leanlang.radar.codegen.jooq.Tables.COMMITS;
+import static org.leanlang.radar.codegen.jooq.Tables.COMMIT_IDS;
+import static org.leanlang.radar.codegen.jooq.Tables.HISTORY;
+import static org.leanlang.radar.codegen.jooq.Tables.MEASUREMENTS;
+import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
+
+import com.codahale.metrics.MetricRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.leanlang.radar.codegen.jooq.tables.records.MeasurementsRecord;
+
+class RepoArchiveTest {
+    private static final int COMMIT_COUNT = 250;
+    private static final int METRICS_COUNT = 5;
+    private static final int KEEP = 20;
+
+    @TempDir
+    Path dir;
+
+    private RepoDb db;
+    private RepoArchive archive;
+    private List<Integer> metricIds;
+
+    private static String chash(int position) {
+        return "%040d".formatted(position);
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        db = new RepoDb("test", dir.resolve("data.db"), new MetricRegistry(), Duration.ZERO);
+        archive = new RepoArchive(dir.resolve("archive"), db);
+
+        db.writeTransaction(ctx -> {
+            for (int m = 0; m < METRICS_COUNT; m++) {
+                ctx.dsl().insertInto(METRICS, METRICS.METRIC).values("metric " + m).execute();
+            }
+            for (int i = 0; i < COMMIT_COUNT; i++) {
+                ctx.dsl().insertInto(COMMITS).set(TestRepos.commit(chash(i), Instant.EPOCH.plusSeconds(i))).execute();
+                ctx.dsl().insertInto(HISTORY, HISTORY.POSITION, HISTORY.CHASH).values(i, chash(i)).execute();
+            }
+        });
+        metricIds = db.read().dsl().select(METRICS.ID).from(METRICS).orderBy(METRICS.ID).fetch(METRICS.ID);
+
+        db.writeTransaction(ctx -> {
+            for (int i = 0; i < COMMIT_COUNT; i++) {
+                int commitId = CommitIds.intern(ctx, chash(i));
+                for (int m = 0; m < METRICS_COUNT; m++) {
+                    if ((i + m) % 7 == 0) continue; // Not every commit has every metric
+                    String source = i % 3 == 0 ? null : "source " + (i % 3);
+                    ctx.dsl()
+                            .insertInto(MEASUREMENTS)
+                            .set(new MeasurementsRecord(metricIds.get(m), commitId, i * 10 + m + 0.5f, source))
+                            .execute();
+                }
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.close();
+    }
+
+    private static Set<List<Object>> rows(List<MeasurementsRecord> records) {
+        return records.stream().map(it -> Arrays.asList(it.intoArray())).collect(Collectors.toSet());
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        Map<String, Set<List<Object>>> expected = new HashMap<>();
+        for (int i = 0; i < COMMIT_COUNT; i++) {
+            String chash = chash(i);
+            expected.put(
+                    chash,
+                    rows(db.read()
+                            .dsl()
+                            .selectFrom(MEASUREMENTS)
+                            .where(MEASUREMENTS.COMMIT_ID.eq(CommitIds.of(chash)))
+                            .fetch()));
+        }
+        Map<Integer, Map<Integer, Float>> expectedValues = new HashMap<>();
+        db.read()
+                .dsl()
+                .select(MEASUREMENTS.METRIC_ID, HISTORY.POSITION, MEASUREMENTS.VALUE)
+                .from(HISTORY.join(COMMIT_IDS)
+                        .on(COMMIT_IDS.CHASH.eq(HISTORY.CHASH))
+                        .join(MEASUREMENTS)
+                        .on(MEASUREMENTS.COMMIT_ID.eq(COMMIT_IDS.ID)))
+                .where(HISTORY.POSITION.lt(COMMIT_COUNT - KEEP))
+                .forEach(it -> expectedValues
+                        .computeIfAbsent(it.value1(), k -> new HashMap<>())
+                        .put(it.value2(), it.value3()));
+
+        assertEquals(COMMIT_COUNT - KEEP, archive.archive(KEEP));
+        assertEquals(0, archive.archive(KEEP));
+
+        for (int i = 0; i < COMMIT_COUNT; i++) {
+            String chash = chash(i);
+            List<MeasurementsRecord> archived = db.readTransactionResult(ctx -> archive.measurements(ctx, chash));
+            int remaining =
+                    db.read().dsl().fetchCount(MEASUREMENTS, MEASUREMENTS.COMMIT_ID.eq(CommitIds.of(chash)));
+            if (i < COMMIT_COUNT - KEEP) {
+                assertEquals(expected.get(chash), rows(archived), chash);
+                assertEquals(0, remaining, chash);
+            } else {
+                assertTrue(archived.isEmpty(), chash);
+                assertEquals(expected.get(chash).size(), remaining, chash);
+            }
+        }
+
+        Map<Integer, Map<Integer, Float>> values =
+                db.readTransactionResult(ctx -> archive.values(ctx, metricIds, COMMIT_COUNT));
+        assertEquals(expectedValues, values);
+
+        // Only the latest commits
+        Map<Integer, Map<Integer, Float>> latestValues =
+                db.readTransactionResult(ctx -> archive.values(ctx, metricIds.subList(0, 1), KEEP + 10));
+        Map<Integer, Float> expectedLatest = expectedValues.get(metricIds.getFirst()).entrySet().stream()
+                .filter(it -> it.getKey() >= COMMIT_COUNT - KEEP - 10)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        assertEquals(Map.of(metricIds.getFirst(), expectedLatest), latestValues);
+    }
+}
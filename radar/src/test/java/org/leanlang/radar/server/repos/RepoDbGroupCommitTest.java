@@ -0,0 +1,104 @@
+package org.leanlang.radar.server.repos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
+
+import com.codahale.metrics.MetricRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.jooq.Configuration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RepoDbGroupCommitTest {
+    @TempDir
+    Path dir;
+
+    private RepoDb open() throws IOException {
+        return new RepoDb("test", dir.resolve("data.db"), new MetricRegistry(), Duration.ZERO);
+    }
+
+    private static void insertMetric(Configuration ctx, String metric) {
+        ctx.dsl().insertInto(METRICS, METRICS.METRIC).values(metric).execute();
+    }
+
+    private static Set<String> metrics(RepoDb db) {
+        return db.read().dsl().selectFrom(METRICS).fetchSet(METRICS.METRIC);
+    }
+
+    @Test
+    void commitsAllWrites() throws IOException {
+        try (RepoDb db = open()) {
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                String metric = "m" + i;
+                writes.add(db.writeTransactionGrouped(ctx -> insertMetric(ctx, metric)));
+            }
+            RepoDb.awaitGrouped(writes);
+            assertEquals(100, metrics(db).size());
+        }
+    }
+
+    @Test
+    void failingWritesOnlyRollBackThemselves() throws IOException {
+        try (RepoDb db = open()) {
+            CompletableFuture<Void> first = db.writeTransactionGrouped(ctx -> insertMetric(ctx, "a"));
+            CompletableFuture<Void> failing = db.writeTransactionGrouped(ctx -> {
+                insertMetric(ctx, "b");
+                insertMetric(ctx, "a"); // Violates the unique constraint
+            });
+            CompletableFuture<Void> last = db.writeTransactionGrouped(ctx -> insertMetric(ctx, "c"));
+
+            first.join();
+            assertThrows(CompletionException.class, failing::join);
+            last.join();
+            assertEquals(Set.of("a", "c"), metrics(db));
+        }
+    }
+
+    @Test
+    void writesSubmittedBeforeClosingAreCommitted() throws IOException {
+        try (RepoDb db = open()) {
+            for (int i = 0; i < 10; i++) {
+                String metric = "m" + i;
+                db.writeTransactionGrouped(ctx -> insertMetric(ctx, metric));
+            }
+        }
+
+        try (RepoDb db = open()) {
+            assertEquals(10, metrics(db).size());
+        }
+    }
+
+    @Test
+    void writesRacingCloseAreRejectedOrFinished() throws Exception {
+        RepoDb db = open();
+        List<CompletableFuture<Void>> writes = Collections.synchronizedList(new ArrayList<>());
+        Thread submitter = Thread.ofPlatform().start(() -> {
+            for (int i = 0; ; i++) {
+                String metric = "m" + i;
+                try {
+                    writes.add(db.writeTransactionGrouped(ctx -> insertMetric(ctx, metric)));
+                } catch (IllegalStateException e) {
+                    return; // Closed
+                }
+            }
+        });
+
+        Thread.sleep(50);
+        db.close();
+        submitter.join();
+        for (CompletableFuture<Void> write : writes) {
+            assertTrue(write.isDone());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.leanlang.radar.server.repos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.leanlang.radar.codegen.jooq.Tables.METRICS;
+
+import com.codahale.metrics.MetricRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RepoDbOnlineVacuumTest {
+    private static final Map<String, String> TABLES = Map.of(
+            "single", "SELECT * FROM single ORDER BY id",
+            "composite", "SELECT * FROM composite ORDER BY a, b",
+            "child", "SELECT * FROM child ORDER BY id",
+            "nokey", "SELECT * FROM nokey ORDER BY value");
+
+    @TempDir
+    Path dir;
+
+    private static Connection connect(Path path) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path.toAbsolutePath());
+        DSL.using(connection, SQLDialect.SQLITE).execute("PRAGMA foreign_keys = ON");
+        return connection;
+    }
+
+    private static Map<String, List<List<Object>>> contents(DSLContext dsl) {
+        return TABLES.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, it -> dsl.fetch(it.getValue()).stream()
+                        .map(row -> List.of(row.intoArray()))
+                        .toList()));
+    }
+
+    @Test
+    void copiesChangesMadeDuringVacuum() throws SQLException {
+        Path original = dir.resolve("original.db");
+        Path vacuumed = dir.resolve("vacuumed.db");
+
+        try (Connection connection = connect(original)) {
+            DSLContext dsl = DSL.using(connection, SQLDialect.SQLITE);
+            dsl.execute("CREATE TABLE single (id INTEGER PRIMARY KEY, value TEXT)");
+            dsl.execute("CREATE TABLE composite (a TEXT, b TEXT, value TEXT, PRIMARY KEY (a, b)) WITHOUT ROWID");
+            dsl.execute("CREATE TABLE child (id INTEGER PRIMARY KEY, parent INTEGER"
+                    + " REFERENCES single ON DELETE CASCADE ON UPDATE CASCADE)");
+            dsl.execute("CREATE TABLE nokey (value TEXT)");
+            for (int i = 0; i < 10; i++) {
+                dsl.execute("INSERT INTO single VALUES (?, ?)", i, "v" + i);
+                dsl.execute("INSERT INTO composite VALUES (?, ?, ?)", "a" + i % 3, "b" + i, "v" + i);
+                dsl.execute("INSERT INTO child VALUES (?, ?)", i, i);
+                dsl.execute("INSERT INTO nokey VALUES (?)", "v" + i);
+            }
+
+            RepoDbOnlineVacuum.trackChanges(dsl);
+            dsl.execute("VACUUM INTO {0}", DSL.inline(vacuumed.toString()));
+
+            dsl.execute("INSERT INTO single VALUES (100, 'new')");
+            dsl.execute("UPDATE single SET value = 'changed' WHERE id = 1");
+            dsl.execute("UPDATE single SET id = 200 WHERE id = 2"); // Also moves its child by cascading
+            dsl.execute("DELETE FROM single WHERE id = 3"); // Also deletes its child
+            dsl.execute("UPDATE composite SET value = 'changed' WHERE a = 'a0' AND b = 'b3'");
+            dsl.execute("DELETE FROM composite WHERE a = 'a1'");
+            dsl.execute("INSERT INTO composite VALUES ('a1', 'b1', 'new')");
+            dsl.execute("UPDATE child SET parent = 5 WHERE id = 4");
+            dsl.execute("DELETE FROM nokey WHERE value = 'v5'");
+            dsl.execute("INSERT INTO nokey VALUES ('new')");
+
+            assertEquals(19, RepoDbOnlineVacuum.copyChanges(dsl, vacuumed));
+            RepoDbOnlineVacuum.stopTrackingChanges(dsl);
+
+            // Changes after tracking stopped are no longer recorded
+            dsl.execute("INSERT INTO single VALUES (300, 'untracked')");
+            dsl.execute("DELETE FROM single WHERE id = 300");
+
+            try (Connection vacuumedConnection = connect(vacuumed)) {
+                assertEquals(contents(dsl), contents(DSL.using(vacuumedConnection, SQLDialect.SQLITE)));
+            }
+        }
+    }
+
+    @Test
+    void vacuumOnlineKeepsData() throws IOException {
+        try (RepoDb db = new RepoDb("test", dir.resolve("data.db"), new MetricRegistry(), Duration.ZERO)) {
+            db.writeTransaction(ctx -> {
+                for (int i = 0; i < 100; i++) {
+                    ctx.dsl().insertInto(METRICS, METRICS.METRIC).values("m" + i).execute();
+                }
+            });
+            db.vacuumOnline();
+
+            db.writeTransaction(ctx -> ctx.dsl().insertInto(METRICS, METRICS.METRIC).values("after").execute());
+            Set<String> metrics = db.read().dsl().selectFrom(METRICS).fetchSet(METRICS.METRIC);
+            assertEquals(101, metrics.size());
+        }
+    }
+
+    @Test
+    void vacuumOnlineWaitsForRunningReads() throws Exception {
+        try (RepoDb db = new RepoDb("test", dir.resolve("data.db"), new MetricRegistry(), Duration.ZERO)) {
+            db.writeTransaction(ctx -> {
+                for (int i = 0; i < 100; i++) {
+                    ctx.dsl().insertInto(METRICS, METRICS.METRIC).values("m" + i).execute();
+                }
+            });
+
+            CountDownLatch reading = new CountDownLatch(1);
+            CompletableFuture<Integer> read = CompletableFuture.supplyAsync(() -> db.readTransactionResult(ctx -> {
+                reading.countDown();
+                Thread.sleep(500);
+                return ctx.dsl().fetchCount(METRICS);
+            }));
+            reading.await();
+            db.vacuumOnline();
+
+            assertEquals(100, read.join());
+            assertEquals(100, db.read().dsl().fetchCount(METRICS));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.leanlang.radar.server.repos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.leanlang.radar.runner.supervisor.JsonRunResultEntry;
+
+class RunEntriesFileTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsEntriesBackInBatches() throws IOException {
+        List<JsonRunResultEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            Optional<String> unit = i % 3 == 0 ? Optional.empty() : Optional.of("unit " + i);
+            entries.add(new JsonRunResultEntry("metric/" + i, i * 1.5f, unit));
+        }
+
+        try (RunEntriesFile file = new RunEntriesFile(dir, "run")) {
+            file.addAll(entries.subList(0, 10));
+            for (JsonRunResultEntry entry : entries.subList(10, 25)) file.add(entry);
+            assertEquals(25, file.size());
+
+            List<Integer> sizes = new ArrayList<>();
+            List<JsonRunResultEntry> read = new ArrayList<>();
+            file.forEachBatch(10, batch -> {
+                sizes.add(batch.size());
+                read.addAll(batch);
+            });
+            assertEquals(List.of(10, 10, 5), sizes);
+            assertEquals(entries, read);
+        }
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertFalse(files.findAny().isPresent());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.leanlang.radar.server.repos;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import io.dropwizard.core.Configuration;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.validation.Validators;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.leanlang.radar.codegen.jooq.tables.records.CommitsRecord;
+import org.leanlang.radar.server.config.Dirs;
+import org.leanlang.radar.server.config.ServerConfigDirs;
+import org.leanlang.radar.server.config.ServerConfigRepo;
+import org.leanlang.radar.server.config.ServerConfigRepoRun;
+import org.leanlang.radar.server.config.credentials.CredentialsByRepo;
+
+public final class TestRepos {
+    private TestRepos() {}
+
+    /**
+     * Open a repo whose files all live in {@code dir}. Its DB is migrated but otherwise empty, as are its git repos.
+     */
+    public static Repo open(Path dir, String name, List<ServerConfigRepoRun> benchRuns) throws IOException {
+        // Without credentials, the client is never used
+        return new Repo(environment(name), null, dirs(dir), config(name, benchRuns), null, null);
+    }
+
+    /**
+     * Like {@link #open(Path, String, List)}, but for multiple repos sharing {@code dir}.
+     */
+    public static Repos openAll(Path dir, List<ServerConfigRepo> configs) throws IOException {
+        return new Repos(
+                environment("repos"), null, dirs(dir), new CredentialsByRepo(Map.of(), Map.of()), configs);
+    }
+
+    public static ServerConfigRepo config(String name, List<ServerConfigRepoRun> benchRuns) {
+        ServerConfigRepo config = new ServerConfigRepo();
+        config.name = name;
+        config.description = name;
+        config.url = URI.create("https://example.com/" + name + ".git");
+        config.ref = "main";
+        config.benchUrl = URI.create("https://example.com/" + name + "-bench.git");
+        config.benchRef = "main";
+        config.benchRuns = benchRuns;
+        return config;
+    }
+
+    /**
+     * A commit with the given hash and placeholder metadata, for inserting into the commits table.
+     */
+    public static CommitsRecord commit(String chash, Instant time) {
+        CommitsRecord commit = new CommitsRecord();
+        commit.setChash(chash);
+        commit.setAuthorName("author");
+        commit.setAuthorEmail("author@example.com");
+        commit.setAuthorTime(time);
+        commit.setAuthorOffset(0);
+        commit.setCommitterName("committer");
+        commit.setCommitterEmail("committer@example.com");
+        commit.setCommitterTime(time);
+        commit.setCommitterOffset(0);
+        commit.setMessageTitle("Commit " + chash);
+        return commit;
+    }
+
+    private static Environment environment(String name) {
+        return new Environment(
+                name,
+                Jackson.newObjectMapper(),
+                Validators.newValidatorFactory(),
+                new MetricRegistry(),
+                Thread.currentThread().getContextClassLoader(),
+                new HealthCheckRegistry(),
+                new Configuration());
+    }
+
+    private static Dirs dirs(Path dir) {
+        return new Dirs(dir.resolve("config.yaml"), dir.resolve("state"), dir.resolve("cache"), new ServerConfigDirs());
+    }
+}